@@ -0,0 +1,192 @@
+/*
+ * Bench.java
+ *
+ * A small self-contained micro-benchmark harness. Each benchmark is warmed up for a
+ * few iterations so the JIT settles, then measured for several more, each iteration
+ * running the operation back to back for a fixed slice of time. Results are reported as
+ * average time per operation and can be exported as JSON (laid out like JMH's own JSON
+ * output) so that runs can be compared with each other.
+ */
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class Bench
+{
+	public static final int WARMUP_ITERATIONS = 5;
+	public static final int MEASURE_ITERATIONS = 10;
+	public static final long ITERATION_NANOS = 200000000L; // time spent in each iteration
+	public static final int BATCH = 64; // calls between looks at the clock
+
+	//An operation to measure. Returning something computed from the work keeps the JIT
+	//from deciding the work isn't needed at all
+	public interface Op
+	{
+		public long run();
+	}
+
+	//Optional work to do before every single call of an operation that should not count
+	//towards its time, e.g. rebuilding a board the operation destroys. Its time is taken
+	//out by also timing batches of the setup on its own, so it may be called more often
+	//than the operation is
+	public interface Setup
+	{
+		public void run();
+	}
+
+	//The outcome of one benchmark
+	public static class Result
+	{
+		public final String name;
+		public final String params;
+		public final double[] samples; // ns/op of each measured iteration
+		public final double mean;
+		public final double error; // 99.9% confidence half-width, like JMH reports
+
+		public Result(String name, String params, double[] samples)
+		{
+			this.name = name;
+			this.params = params;
+			this.samples = samples;
+
+			double sum = 0;
+			for(int i = 0; i < samples.length; i++)
+				sum += samples[i];
+			mean = sum / samples.length;
+
+			double var = 0;
+			for(int i = 0; i < samples.length; i++)
+				var += (samples[i] - mean) * (samples[i] - mean);
+			var /= Math.max(1, samples.length - 1);
+
+			error = 3.29 * Math.sqrt(var / samples.length);
+		}
+	}
+
+	private static volatile long sink; // where results end up, see Op
+
+	private List<Result> results;
+	private String filter; // only benchmarks whose name contains this are run
+
+	public List<Result> getResults()		{return results;}
+
+	public Bench(String filter)
+	{
+		results = new ArrayList<Result>();
+		this.filter = filter;
+	}
+
+	public Result measure(String name, String params, Op op)
+	{
+		return measure(name, params, null, op);
+	}
+
+	public Result measure(String name, String params, Setup setup, Op op)
+	{
+		if(filter != null && !name.contains(filter))
+			return null;
+
+		for(int i = 0; i < WARMUP_ITERATIONS; i++)
+			iteration(setup, op);
+
+		double[] samples = new double[MEASURE_ITERATIONS];
+		for(int i = 0; i < MEASURE_ITERATIONS; i++)
+			samples[i] = iteration(setup, op);
+
+		Result r = new Result(name, params, samples);
+		results.add(r);
+
+		System.out.printf("%-40s %-20s %14.1f +- %10.1f ns/op%n", name, params, r.mean, r.error);
+		return r;
+	}
+
+	//runs the operation for one iteration's worth of time, returning the average ns/op
+	private double iteration(Setup setup, Op op)
+	{
+		long acc = 0;
+		long ops = 0;
+
+		if(setup == null)
+		{
+			long start = System.nanoTime();
+			long end = start + ITERATION_NANOS;
+			long now;
+
+			do
+			{
+				// check the clock in batches so its own cost stays out of the way
+				for(int i = 0; i < BATCH; i++)
+					acc += op.run();
+				ops += BATCH;
+				now = System.nanoTime();
+			} while(now < end);
+
+			sink += acc;
+			return (double)(now - start) / ops;
+		}
+
+		// with setup, only the time spent inside the operation itself counts. Timing each
+		// call on its own would mostly measure the clock, so time a batch of setups with
+		// operations and then a batch of setups alone, and count the difference
+		long both = 0;
+		long alone = 0;
+		long end = System.nanoTime() + ITERATION_NANOS;
+
+		while(System.nanoTime() < end)
+		{
+			long start = System.nanoTime();
+			for(int i = 0; i < BATCH; i++)
+			{
+				setup.run();
+				acc += op.run();
+			}
+
+			long mid = System.nanoTime();
+			for(int i = 0; i < BATCH; i++)
+				setup.run();
+
+			alone += System.nanoTime() - mid;
+			both += mid - start;
+			ops += BATCH;
+		}
+
+		sink += acc;
+		return (double)Math.max(both - alone, 0) / ops;
+	}
+
+	//writes every result so far as JSON to the given file
+	public void writeJson(String path) throws IOException
+	{
+		PrintWriter out = new PrintWriter(new FileWriter(path));
+
+		out.println("[");
+		for(int i = 0; i < results.size(); i++)
+		{
+			Result r = results.get(i);
+
+			out.println("  {");
+			out.println("    \"benchmark\" : \"" + r.name + "\",");
+			out.println("    \"params\" : \"" + r.params + "\",");
+			out.println("    \"mode\" : \"avgt\",");
+			out.println("    \"warmupIterations\" : " + WARMUP_ITERATIONS + ",");
+			out.println("    \"measurementIterations\" : " + MEASURE_ITERATIONS + ",");
+			out.println("    \"primaryMetric\" : {");
+			out.println("      \"score\" : " + r.mean + ",");
+			out.println("      \"scoreError\" : " + r.error + ",");
+			out.println("      \"scoreUnit\" : \"ns/op\",");
+			out.print("      \"rawData\" : [");
+			for(int j = 0; j < r.samples.length; j++)
+				out.print((j == 0 ? "" : ", ") + r.samples[j]);
+			out.println("]");
+			out.println("    }");
+			out.println("  }" + (i < results.size() - 1 ? "," : ""));
+		}
+		out.println("]");
+
+		out.close();
+	}
+}
@@ -0,0 +1,35 @@
+/*
+ * Benchmarks.java
+ *
+ * Runs the whole benchmark suite and exports the results as JSON for comparison
+ * against earlier runs. Must be run from the project folder so the game's images can
+ * be found. Build and run with:
+ *
+ *   javac -d out $(find src bench -name "*.java")
+ *   java -cp out Benchmarks [results.json] [filter]
+ *
+ * where filter, if given, only runs benchmarks whose name contains it.
+ */
+
+import java.io.IOException;
+
+
+public class Benchmarks
+{
+	public static void main(String [] args) throws IOException
+	{
+		String out = (args.length > 0) ? args[0] : "bench-results.json";
+		String filter = (args.length > 1) ? args[1] : null;
+		
+		Bench bench = new Bench(filter);
+		
+		PuyoBench.run(bench);
+		EngineBench.run(bench);
+		EntityBench.run(bench);
+		CollisionBench.run(bench);
+		UpdateBench.run(bench);
+		
+		bench.writeJson(out);
+		System.out.println("Results written to " + out);
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * CollisionBench.java
+ *
+ * Compares finding every overlapping pair of objects by checking each against every
+ * other with doing it through a SpatialHash, including the cost of refiling everything
+ * after a tick of movement.
+ */
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import com.lpq.game.GameManager;
+import com.lpq.game.GameObj;
+import com.lpq.game.SpatialHash;
+
+
+public class CollisionBench
+{
+	public static final int[] COUNTS = {100, 1000, 5000};
+	public static final int WORLD = 2048; // objects are scattered over a square this size
+	public static final long SEED = 42;
+	
+	//A ball sized object wandering about
+	private static class Mover extends GameObj
+	{
+		private int vx, vy;
+		
+		public Mover(int x, int y, int vx, int vy)
+		{
+			this.x = x;
+			this.y = y;
+			this.vx = vx;
+			this.vy = vy;
+			width = PuyoPuyo.BALLSIZE;
+			height = PuyoPuyo.BALLSIZE;
+		}
+		
+		public void update(GameManager gMan)
+		{
+			x += vx;
+			y += vy;
+			
+			if(x < 0 || x > WORLD)
+				vx = -vx;
+			if(y < 0 || y > WORLD)
+				vy = -vy;
+		}
+	}
+	
+	private static boolean overlaps(GameObj a, GameObj b)
+	{
+		return a.getX() < b.getX() + b.getWidth() && b.getX() < a.getX() + a.getWidth()
+				&& a.getY() < b.getY() + b.getHeight() && b.getY() < a.getY() + a.getHeight();
+	}
+	
+	public static void run(Bench bench)
+	{
+		for(int c = 0; c < COUNTS.length; c++)
+		{
+			String params = "objects=" + COUNTS[c];
+			
+			final ArrayList<GameObj> objs = new ArrayList<GameObj>();
+			Random rnd = new Random(SEED);
+			for(int i = 0; i < COUNTS[c]; i++)
+				objs.add(new Mover(rnd.nextInt(WORLD), rnd.nextInt(WORLD), rnd.nextInt(5) - 2, rnd.nextInt(5) - 2));
+			
+			final SpatialHash hash = new SpatialHash(2 * PuyoPuyo.BALLSIZE);
+			hash.sync(objs);
+			
+			bench.measure("Collisions.pairs(bruteForce)", params, new Bench.Op() {
+				public long run()
+				{
+					long pairs = 0;
+					for(int i = 0; i < objs.size(); i++)
+						for(int j = i + 1; j < objs.size(); j++)
+							if(overlaps(objs.get(i), objs.get(j)))
+								pairs++;
+					
+					return pairs;
+				}
+			});
+			
+			bench.measure("Collisions.pairs(SpatialHash)", params, new Bench.Op() {
+				public long run() {return hash.findPairs(null);}
+			});
+			
+			// a tick of movement, then refiling and the pair search
+			bench.measure("Collisions.moveAndPairs(SpatialHash)", params, new Bench.Op() {
+				public long run()
+				{
+					for(int i = 0; i < objs.size(); i++)
+						objs.get(i).update(null);
+					
+					hash.sync(objs);
+					return hash.findPairs(null);
+				}
+			});
+			
+			final ArrayList<GameObj> found = new ArrayList<GameObj>();
+			bench.measure("Collisions.query(SpatialHash)", params, new Bench.Op() {
+				int i = 0;
+				public long run()
+				{
+					i = (i + 1) % objs.size();
+					return hash.query(objs.get(i), found);
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,250 @@
+/*
+ * EngineBench.java
+ *
+ * Benchmarks for the engine's per-frame work: sprite lookups in the SpriteManager and
+ * the GameCanvas draw passes, rendered into an offscreen image rather than a window so
+ * they can run without a display. Also the engine's bookkeeping helpers, the Histogram
+ * and the TranspositionTable.
+ */
+
+import java.awt.Graphics;
+import java.awt.event.KeyAdapter;
+import java.awt.image.BufferedImage;
+
+import com.lpq.game.FrameStats;
+import com.lpq.game.GameCanvas;
+import com.lpq.game.GameManager;
+import com.lpq.game.GameObj;
+import com.lpq.game.Histogram;
+import com.lpq.game.SpriteManager;
+import com.lpq.game.TranspositionTable;
+
+
+public class EngineBench
+{
+	public static final String[] IMAGES = {"rit_puyo_red", "rit_puyo_blue", 
+		"rit_puyo_green", "rit_puyo_yellow"};
+	
+	//A canvas that only ever draws into whatever graphics it's handed
+	private static class OffscreenCanvas extends GameCanvas
+	{
+		private static final long serialVersionUID = 1L;
+		
+		public OffscreenCanvas(GameManager gm, SpriteManager sm)
+		{
+			super(gm, sm, PuyoPuyo.SCREENWIDTH, PuyoPuyo.SCREENHEIGHT);
+		}
+		
+		protected void updateInGame()						{}
+		protected void updateGameOver()						{}
+		protected KeyAdapter getKeyListenerInstance()		{return null;}
+		protected GameManager getGameManagerInstance()		{return gMan;}
+	}
+	
+	//A game of nothing but scenery
+	private static class SceneryManager extends GameManager
+	{
+		public boolean checkGameOver()			{return false;}
+	}
+	
+	private static class Tile extends GameObj
+	{
+		public Tile(String img, int x, int y)
+		{
+			imageName = img;
+			this.x = x;
+			this.y = y;
+		}
+		
+		public void update(GameManager gMan)	{}
+	}
+	
+	public static void run(Bench bench)
+	{
+		final SpriteManager sMan = new SpriteManager();
+		sMan.loadImages("files/images.txt");
+		
+		bench.measure("SpriteManager.getImage", "", new Bench.Op() {
+			int i = 0;
+			public long run()
+			{
+				i = (i + 1) & 3;
+				return sMan.getImage(IMAGES[i]).getWidth();
+			}
+		});
+		
+		final Histogram histogram = new Histogram();
+		bench.measure("Histogram.record", "", new Bench.Op() {
+			long v = 1;
+			public long run()
+			{
+				v = v * 6364136223846793005L + 1442695040888963407L; // spread over every magnitude
+				histogram.record((v >>> 1) >>> (v & 63));
+				return histogram.getCount();
+			}
+		});
+		
+		// a table four times too small for the positions asked about, so misses and
+		// replacements are common
+		final TranspositionTable table = new TranspositionTable(1 << 12);
+		bench.measure("TranspositionTable.get/put", "", new Bench.Op() {
+			long v = 1;
+			public long run()
+			{
+				v = v * 6364136223846793005L + 1442695040888963407L;
+				long key = (v >>> 50) * 0x9E3779B97F4A7C15L; // 16384 different positions
+				long found = table.get(key, -1);
+				if(found == -1)
+					table.put(key, v, (int)(v & 3));
+				return found;
+			}
+		});
+		
+		final int[] ids = new int[IMAGES.length];
+		for(int i = 0; i < IMAGES.length; i++)
+			ids[i] = sMan.getId(IMAGES[i]);
+		
+		bench.measure("SpriteManager.getImage(id)", "", new Bench.Op() {
+			int i = 0;
+			public long run()
+			{
+				i = (i + 1) & 3;
+				return sMan.getImage(ids[i]).getWidth();
+			}
+		});
+		
+		final BufferedImage target = new BufferedImage(PuyoPuyo.SCREENWIDTH, 
+				PuyoPuyo.SCREENHEIGHT, BufferedImage.TYPE_INT_RGB);
+		
+		// blitting a sprite as ImageIO hands it over, against one converted on load
+		final SpriteManager raw = new SpriteManager();
+		raw.setCompatible(false);
+		raw.loadImages("files/images.txt");
+		
+		blit(bench, "raw", raw, target);
+		blit(bench, "compatible", sMan, target);
+		
+		runLayers(bench, sMan, target);
+		
+		for(int f = 0; f < PuyoBench.FILLS.length; f++)
+		{
+			String params = "fill=" + PuyoBench.FILLS[f];
+			final OffscreenCanvas canvas = new OffscreenCanvas(
+					PuyoBench.board(PuyoBench.FILLS[f], true, PuyoBench.SEED), sMan);
+			
+			bench.measure("GameCanvas.render", params, new Bench.Op() {
+				public long run()
+				{
+					Graphics g = target.getGraphics();
+					canvas.render(g);
+					g.dispose();
+					return target.getRGB(0, 0);
+				}
+			});
+			
+			// the same again while keeping frame timings, to see what they cost
+			final OffscreenCanvas timed = new OffscreenCanvas(
+					PuyoBench.board(PuyoBench.FILLS[f], true, PuyoBench.SEED), sMan);
+			timed.setFrameStats(new FrameStats());
+			
+			bench.measure("GameCanvas.render(timed)", params, new Bench.Op() {
+				public long run()
+				{
+					Graphics g = target.getGraphics();
+					timed.render(g);
+					g.dispose();
+					return target.getRGB(0, 0);
+				}
+			});
+			
+			// the game's own canvas, which draws the seated balls from a single image
+			final PuyoPuyo puyo = new PuyoPuyo(
+					PuyoBench.board(PuyoBench.FILLS[f], true, PuyoBench.SEED), sMan);
+			
+			bench.measure("PuyoPuyo.render", params, new Bench.Op() {
+				public long run()
+				{
+					Graphics g = target.getGraphics();
+					puyo.render(g);
+					g.dispose();
+					return target.getRGB(0, 0);
+				}
+			});
+			
+			// the same board with only a single ball moving between frames, drawing
+			// only what changed
+			PuyoManager moving = PuyoBench.board(PuyoBench.FILLS[f], true, PuyoBench.SEED);
+			final Ball mover = new Ball(Ball.RED, moving.getObjs().size());
+			mover.setX(2 * PuyoPuyo.BALLSIZE);
+			mover.setY(0);
+			moving.addObj(mover);
+			
+			final OffscreenCanvas dirty = new OffscreenCanvas(moving, sMan);
+			dirty.setDirtyRendering(true);
+			
+			bench.measure("GameCanvas.render(dirty)", params, new Bench.Op() {
+				public long run()
+				{
+					mover.setY(PuyoPuyo.BALLSIZE - mover.getY()); // back and forth
+					Graphics g = target.getGraphics();
+					dirty.render(g);
+					g.dispose();
+					return target.getRGB(0, 0);
+				}
+			});
+		}
+	}
+	
+	//draws one sprite after another into the target
+	private static void blit(Bench bench, String params, final SpriteManager sm, 
+			final BufferedImage target)
+	{
+		final Graphics g = target.getGraphics();
+		
+		bench.measure("SpriteManager.blit", params, new Bench.Op() {
+			int i = 0;
+			public long run()
+			{
+				i = (i + 1) & 3;
+				g.drawImage(sm.getRenderImage(IMAGES[i]), (i * 32) & 127, 32, null);
+				return i;
+			}
+		});
+		
+		g.dispose();
+	}
+	
+	//a screen tiled with background and foreground objects, drawn directly each frame
+	//against drawn from cached layers
+	public static void runLayers(Bench bench, SpriteManager sMan, final BufferedImage target)
+	{
+		SceneryManager scenery = new SceneryManager();
+		
+		for(int x = 0; x < PuyoPuyo.SCREENWIDTH; x += PuyoPuyo.BALLSIZE)
+		{
+			for(int y = 0; y < PuyoPuyo.SCREENHEIGHT; y += PuyoPuyo.BALLSIZE)
+			{
+				scenery.addBgObj(new Tile(IMAGES[(x + y) / PuyoPuyo.BALLSIZE & 3], x, y));
+				
+				if(y < PuyoPuyo.BALLSIZE * 2) // a strip along the top in front
+					scenery.addFgObj(new Tile(IMAGES[x / PuyoPuyo.BALLSIZE & 3], x, y));
+			}
+		}
+		
+		for(int i = 0; i < 2; i++)
+		{
+			final OffscreenCanvas canvas = new OffscreenCanvas(scenery, sMan);
+			canvas.setLayerCaching(i == 1);
+			
+			bench.measure("GameCanvas.render(scenery)", "cached=" + (i == 1), new Bench.Op() {
+				public long run()
+				{
+					Graphics g = target.getGraphics();
+					canvas.render(g);
+					g.dispose();
+					return target.getRGB(0, 0);
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * EntityBench.java
+ *
+ * Compares keeping lots of simple moving entities as GameObjs (one object each, in the
+ * game manager's list) against keeping them in an EntityStore (one array per field),
+ * for both a tick of updates and a frame of drawing.
+ */
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import com.lpq.game.EntityStore;
+import com.lpq.game.GameManager;
+import com.lpq.game.GameObj;
+import com.lpq.game.SpriteManager;
+
+
+public class EntityBench
+{
+	public static final int[] COUNTS = {1000, 10000};
+	public static final long SEED = 42;
+	
+	//A game of nothing but drifting entities
+	private static class DriftManager extends GameManager
+	{
+		public boolean checkGameOver()			{return false;}
+	}
+	
+	//The GameObj way of writing a drifting entity
+	private static class Drifter extends GameObj
+	{
+		private int vx, vy;
+		
+		public Drifter(int sprite, int x, int y, int vx, int vy)
+		{
+			this.sprite = sprite;
+			this.x = x;
+			this.y = y;
+			this.vx = vx;
+			this.vy = vy;
+		}
+		
+		public void update(GameManager gMan)
+		{
+			x += vx;
+			y += vy;
+		}
+	}
+	
+	public static void run(Bench bench)
+	{
+		final SpriteManager sMan = new SpriteManager();
+		sMan.loadImages("files/images.txt");
+		final int sprite = sMan.getId(EngineBench.IMAGES[0]);
+		
+		BufferedImage screen = new BufferedImage(PuyoPuyo.SCREENWIDTH, PuyoPuyo.SCREENHEIGHT, 
+				BufferedImage.TYPE_INT_RGB);
+		final Graphics g = screen.getGraphics();
+		
+		for(int c = 0; c < COUNTS.length; c++)
+		{
+			int count = COUNTS[c];
+			String params = "entities=" + count;
+			
+			// the same entities, set up both ways
+			final DriftManager objs = new DriftManager();
+			final DriftManager store = new DriftManager();
+			final EntityStore entities = new EntityStore(count);
+			store.setEntities(entities);
+			
+			Random rnd = new Random(SEED);
+			for(int i = 0; i < count; i++)
+			{
+				int x = rnd.nextInt(PuyoPuyo.SCREENWIDTH), y = rnd.nextInt(PuyoPuyo.SCREENHEIGHT);
+				int vx = rnd.nextInt(3) - 1, vy = rnd.nextInt(3) - 1;
+				
+				// interleave some garbage between the objects, like a heap that's been in
+				// use a while would have
+				objs.addObj(new Drifter(sprite, x, y, vx, vy));
+				new int[rnd.nextInt(16)].hashCode();
+				
+				int id = entities.create(x, y, 0, sprite);
+				entities.setVx(id, vx);
+				entities.setVy(id, vy);
+			}
+			
+			bench.measure("Entities.update(GameObj)", params, new Bench.Op() {
+				public long run()
+				{
+					objs.savePositions();
+					objs.update();
+					return objs.get(0).getX();
+				}
+			});
+			
+			bench.measure("Entities.update(EntityStore)", params, new Bench.Op() {
+				public long run()
+				{
+					store.savePositions();
+					store.update();
+					return entities.getXArray()[0];
+				}
+			});
+			
+			bench.measure("Entities.draw(GameObj)", params, new Bench.Op() {
+				public long run()
+				{
+					for(int i = 0; i < objs.getObjs().size(); i++)
+					{
+						GameObj o = objs.get(i);
+						g.drawImage(sMan.getRenderImage(o.getSprite(sMan)), o.getDrawX(0.5f), 
+								o.getDrawY(0.5f), null);
+					}
+					return 0;
+				}
+			});
+			
+			bench.measure("Entities.draw(EntityStore)", params, new Bench.Op() {
+				public long run()
+				{
+					entities.draw(g, sMan, 0.5f);
+					return 0;
+				}
+			});
+		}
+		
+		g.dispose();
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * PuyoBench.java
+ *
+ * Benchmarks for PuyoManager's board work: match resolution, neighbor updates, the
+ * grounded and game over checks, saving and restoring snapshots, playing a chain out with
+ * ChainSimulator, hashing a board, and PuyoBot's search for a move. Each is run over
+ * generated boards of several fill levels, from a nearly empty board up to a full one.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+
+public class PuyoBench
+{
+	public static final int[] FILLS = {25, 50, 75, 100}; // percent of the 6x12 board filled
+	public static final long SEED = 42;
+
+	//Builds a settled board with roughly the given percent of cells filled. Columns are
+	//stacked from the ground up like the real game would leave them. If noGroups is set
+	//colors are picked so that no link of 4+ exists, which is the common case the game
+	//sees after a settle (and the one where every ball has to be examined).
+	public static PuyoManager board(int fill, boolean noGroups, long seed)
+	{
+		Random rnd = new Random(seed);
+		int[] heights = new int[6];
+		int balls = 72 * fill / 100;
+
+		for(int placed = 0; placed < balls; )
+		{
+			int col = rnd.nextInt(6);
+			if(heights[col] < 12)
+			{
+				heights[col]++;
+				placed++;
+			}
+		}
+
+		int[][] colors = new int[6][12];
+		for(int i = 0; i < 6; i++)
+			for(int j = 0; j < 12; j++)
+				colors[i][j] = -1;
+
+		for(int i = 0; i < 6; i++)
+		{
+			for(int j = 11; j >= 12 - heights[i]; j--)
+			{
+				int color = rnd.nextInt(4);
+
+				if(noGroups)
+				{
+					// try the other colors until one doesn't complete a link of 4
+					for(int k = 0; k < 4 && linkSize(colors, i, j, color) >= 4; k++)
+						color = (color + 1) % 4;
+				}
+
+				colors[i][j] = color;
+			}
+		}
+
+		PuyoManager pMan = new PuyoManager();
+		for(int i = 0; i < 6; i++)
+		{
+			for(int j = 0; j < 12; j++)
+			{
+				if(colors[i][j] == -1)
+					continue;
+
+				Ball b = new Ball(colors[i][j], pMan.getObjs().size());
+				b.setX(i * PuyoPuyo.BALLSIZE);
+				b.setY(j * PuyoPuyo.BALLSIZE);
+				b.setState(Ball.SEATED);
+				pMan.addObj(b);
+			}
+		}
+
+		pMan.updateGrid();
+		pMan.updateNeighbors();
+		return pMan;
+	}
+
+	//size of the link the cell at x,y would join if it were given this color
+	private static int linkSize(int[][] colors, int x, int y, int color)
+	{
+		boolean[][] seen = new boolean[6][12];
+		int prev = colors[x][y];
+		colors[x][y] = color;
+		int size = count(colors, seen, x, y, color);
+		colors[x][y] = prev;
+		return size;
+	}
+
+	private static int count(int[][] colors, boolean[][] seen, int x, int y, int color)
+	{
+		if(x < 0 || x >= 6 || y < 0 || y >= 12 || seen[x][y] || colors[x][y] != color)
+			return 0;
+
+		seen[x][y] = true;
+		return 1 + count(colors, seen, x+1, y, color) + count(colors, seen, x-1, y, color)
+				+ count(colors, seen, x, y+1, color) + count(colors, seen, x, y-1, color);
+	}
+
+	public static void run(Bench bench)
+	{
+		for(int f = 0; f < FILLS.length; f++)
+		{
+			final int fill = FILLS[f];
+			String params = "fill=" + fill;
+
+			// a board with nothing to pop: the full scan every settle pays for, including
+			// innerResolve's search of each link
+			final PuyoManager quiet = board(fill, true, SEED);
+
+			bench.measure("PuyoManager.resolveMatches(noPop)", params, new Bench.Op() {
+				public long run() {return quiet.resolveMatches() ? 1 : 0;}
+			});
+
+			// a random board, which pops a link; rebuilt before every call
+			final PuyoManager[] holder = new PuyoManager[1];
+			final long[] seed = {SEED};
+
+			bench.measure("PuyoManager.resolveMatches(pop)", params, new Bench.Setup() {
+				public void run() {holder[0] = board(fill, false, seed[0]++ % 64);}
+			}, new Bench.Op() {
+				public long run() {return holder[0].resolveMatches() ? 1 : 0;}
+			});
+
+			// a random board's whole chain worked out at once, from a copy so the board
+			// stays put for the next call
+			final PuyoBoard chainBoard = board(fill, false, SEED).getBoard();
+			final PuyoBoard work = new PuyoBoard();
+			final ChainSimulator sim = new ChainSimulator();
+			
+			bench.measure("ChainSimulator.simulate", params, new Bench.Op() {
+				public long run()
+				{
+					work.copyFrom(chainBoard);
+					return sim.simulate(work, PuyoManager.DEFAULT_CHAIN_LEVEL) + sim.getScore();
+				}
+			});
+			
+			// a random board's Zobrist hash, worked out from scratch
+			bench.measure("PuyoBoard.getHash", params, new Bench.Op() {
+				public long run() {return chainBoard.getHash();}
+			});
+			
+			// a whole search for where a pair should go, three pairs deep, on this thread
+			final PuyoBot bot = new PuyoBot(PuyoBot.DEFAULT_BEAM_WIDTH, PuyoBot.DEFAULT_LOOKAHEAD, 0, null);
+			final int[] pairs = {0, 1, 2, 2, 3, 1};
+			
+			bench.measure("PuyoBot.search", params, new Bench.Op() {
+				public long run() {return bot.search(quiet.getBoard(), pairs);}
+			});
+			
+			// every cell touched, as after a pop brings the whole board down
+			bench.measure("PuyoManager.updateNeighbors(all)", params, new Bench.Op() {
+				public long run()
+				{
+					quiet.markDirty(PuyoBoard.VALID, PuyoBoard.VALID);
+					quiet.updateNeighbors();
+					return ((Ball) quiet.get(0)).getNeighborCount();
+				}
+			});
+			
+			// a single pair landing side by side
+			final Ball landed = (Ball) quiet.get(quiet.getObjs().size() / 2);
+			bench.measure("PuyoManager.updateNeighbors(pair)", params, new Bench.Op() {
+				public long run()
+				{
+					quiet.seat(landed);
+					quiet.seat((Ball) quiet.get(quiet.getObjs().size() / 2 + 1));
+					quiet.updateNeighbors();
+					return landed.getNeighborCount();
+				}
+			});
+
+			bench.measure("PuyoManager.checkAllGrounded", params, new Bench.Op() {
+				public long run() {return quiet.checkAllGrounded() ? 1 : 0;}
+			});
+
+			bench.measure("PuyoManager.checkGameOver", params, new Bench.Op() {
+				public long run() {return quiet.checkGameOver() ? 1 : 0;}
+			});
+			
+			// saving into a buffer that's kept around, and restoring a second game from it
+			final ByteBuffer state = quiet.snapshot();
+			final ByteBuffer buf = ByteBuffer.allocate(state.capacity());
+			final PuyoManager other = new PuyoManager();
+			
+			bench.measure("PuyoManager.writeState", params, new Bench.Op() {
+				public long run()
+				{
+					buf.clear();
+					quiet.writeState(buf);
+					return buf.position();
+				}
+			});
+			
+			bench.measure("PuyoManager.restore", params, new Bench.Op() {
+				public long run()
+				{
+					try
+					{
+						other.restore(state);
+					} catch (IOException e) 
+					{
+						throw new IllegalStateException(e);
+					}
+					return other.getObjs().size();
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * UpdateBench.java
+ *
+ * Compares GameManager's phased object update run on the game thread with the same
+ * update spread across a ForkJoinPool, for scenes of objects that each do a little
+ * steering work based on where a few others are.
+ */
+
+import java.util.Random;
+
+import com.lpq.game.GameManager;
+import com.lpq.game.GameObj;
+
+
+public class UpdateBench
+{
+	public static final int[] COUNTS = {500, 5000, 50000};
+	public static final int FLOCK = 8; // others each object steers by
+	public static final long SEED = 42;
+	
+	private static class FlockManager extends GameManager
+	{
+		public boolean checkGameOver()			{return false;}
+	}
+	
+	//Steers towards the middle of a few others, keeping to the read/write contract
+	private static class Boid extends GameObj
+	{
+		private float fx, fy, vx, vy; // position and velocity
+		private float nextVx, nextVy; // worked out in the read phase
+		private GameObj[] flock;
+		
+		public Boid(int x, int y)
+		{
+			fx = x;
+			fy = y;
+			this.x = x;
+			this.y = y;
+		}
+		
+		public void update(GameManager gMan)
+		{
+			readPhase(gMan);
+			writePhase(gMan);
+		}
+		
+		public void readPhase(GameManager gMan)
+		{
+			float cx = 0, cy = 0;
+			for(int i = 0; i < flock.length; i++)
+			{
+				cx += flock[i].getX();
+				cy += flock[i].getY();
+			}
+			cx /= flock.length;
+			cy /= flock.length;
+			
+			float dx = cx - fx, dy = cy - fy;
+			float dist = (float)Math.sqrt(dx * dx + dy * dy) + 1;
+			float angle = (float)Math.atan2(vy, vx);
+			
+			nextVx = vx * 0.9f + dx / dist + (float)Math.cos(angle) * 0.1f;
+			nextVy = vy * 0.9f + dy / dist + (float)Math.sin(angle) * 0.1f;
+		}
+		
+		public void writePhase(GameManager gMan)
+		{
+			vx = nextVx;
+			vy = nextVy;
+			fx += vx;
+			fy += vy;
+			x = Math.round(fx);
+			y = Math.round(fy);
+		}
+	}
+	
+	private static FlockManager scene(int count, boolean parallel)
+	{
+		FlockManager fMan = new FlockManager();
+		Random rnd = new Random(SEED);
+		
+		for(int i = 0; i < count; i++)
+			fMan.addObj(new Boid(rnd.nextInt(2048), rnd.nextInt(2048)));
+		
+		for(int i = 0; i < count; i++)
+		{
+			Boid b = (Boid) fMan.get(i);
+			b.flock = new GameObj[FLOCK];
+			for(int j = 0; j < FLOCK; j++)
+				b.flock[j] = fMan.get(rnd.nextInt(count));
+		}
+		
+		fMan.setParallelUpdate(true);
+		if(!parallel)
+			fMan.setParallelThreshold(Integer.MAX_VALUE);
+		
+		return fMan;
+	}
+	
+	public static void run(Bench bench)
+	{
+		for(int c = 0; c < COUNTS.length; c++)
+		{
+			String params = "objects=" + COUNTS[c];
+			
+			final FlockManager single = scene(COUNTS[c], false);
+			bench.measure("GameManager.update(phased,single)", params, new Bench.Op() {
+				public long run()
+				{
+					single.update();
+					return single.get(0).getX();
+				}
+			});
+			
+			final FlockManager parallel = scene(COUNTS[c], true);
+			bench.measure("GameManager.update(phased,parallel)", params, new Bench.Op() {
+				public long run()
+				{
+					parallel.update();
+					return parallel.get(0).getX();
+				}
+			});
+		}
+	}
+}
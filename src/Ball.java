@@ -8,9 +8,6 @@
  * many calculations. 
  */
 
-import java.util.ArrayList;
-import java.util.List;
-
 import com.lpq.game.GameManager;
 import com.lpq.game.GameObj;
 
@@ -27,16 +24,22 @@ public class Ball extends GameObj
 	public static final int SEATED = 1;
 	public static final int FALLING = 2;
 	
-	public static final int DELAY = 485; //arbitrary value to set falling speed
+	public static final int UP = 0; // neighbor slots
+	public static final int DOWN = 1;
+	public static final int LEFT = 2;
+	public static final int RIGHT = 3;
+	
+	public static final long DELAY = 500000000L; //nanoseconds of game time between each step of a fall
 		//--------------------------------------
 	
 	private int index; // this obj's position in PuyoManager's list; useful for many 
 						//needed positioning calculations and references
 	private int color;
-	private int fallTimer;
+	private long fallTimer; // game time left until the next step of a fall
+	private int targetY; // where a FALLING ball is headed, its seat there is already saved
 	
 	private Ball partner; //points to other ball that falls in the initial pair;
-	private List<Ball> neighbors; // surrounding balls;
+	private Ball[] neighbors; // surrounding balls, one slot per direction (null if none)
 	
 	//------------- GETTERS/SETTERS -------------
 	
@@ -46,51 +49,118 @@ public class Ball extends GameObj
 	
 	public int getColor()				{return color;}
 	public int getIndex()				{return index;}
+	public long getFallTimer()			{return fallTimer;}
+	public int getTargetY()				{return targetY;}
 	
 	public Ball getPartner()			{return partner;}
-	public List<Ball> getNeighbors()	{return neighbors;}
-	
-	public Ball getNeighbor(int i)		{return neighbors.get(i);} // get specific neighbor
+	public Ball getNeighbor(int dir)	{return neighbors[dir];} // get specific neighbor
 	
 	public void setColor(int i)			{color = i;}
 	public void setIndex(int i)			{index = i;}
+	public void setFallTimer(long i)	{fallTimer = i;}
+	public void setTargetY(int i)		{targetY = i;}
 	
 	public void setPartner(Ball i)		{partner = i;}
-	public void clearNeighbors()		{neighbors.clear();}
-	public void addNeighbor(Ball i)		{neighbors.add(i);}
+	public void setNeighbor(int dir, Ball i)	{neighbors[dir] = i;}
+	
+	public void clearNeighbors()
+	{
+		neighbors[UP] = null;
+		neighbors[DOWN] = null;
+		neighbors[LEFT] = null;
+		neighbors[RIGHT] = null;
+	}
+	
+	// number of occupied neighbor slots
+	public int getNeighborCount()
+	{
+		int count = 0;
+		for(int i = 0; i < neighbors.length; i++)
+			if(neighbors[i] != null)
+				count++;
+		
+		return count;
+	}
 		//-----------------------------------------
 	
 	public Ball(int clr, int i)
+	{
+		width = PuyoPuyo.BALLSIZE;
+		height = PuyoPuyo.BALLSIZE;
+		neighbors = new Ball[4];
+		
+		reset(clr, i);
+	}
+	
+	//makes this ball as good as new, so a popped ball can be used again rather than
+	//making another (see PuyoManager.newBall)
+	public void reset(int clr, int i)
 	{
 		color = clr;
 		index = i;
 		
+		x = 0;
+		y = 0;
+		positioned = false; // don't blend in from wherever it last was
 		state = INITFALL;
 		fallTimer = DELAY;
+		targetY = 0;
+		partner = null;
+		clearNeighbors();
 		
 		switch(color)
 		{
-		case RED: imageName = "rit_puyo_red";break;
-		case GREEN: imageName = "rit_puyo_green";break;
-		case BLUE: imageName = "rit_puyo_blue";break;
-		case YELLOW: imageName = "rit_puyo_yellow";
+		case RED: setImageName("rit_puyo_red");break;
+		case GREEN: setImageName("rit_puyo_green");break;
+		case BLUE: setImageName("rit_puyo_blue");break;
+		case YELLOW: setImageName("rit_puyo_yellow");
 		}
-		
-		neighbors = new ArrayList<Ball>();
 	}
 	
 	public void update(GameManager gm)
 	{		
-		if(state == INITFALL || state == FALLING)
+		if(state == INITFALL)
+		{
+			fall((PuyoManager) gm, gm.getTickNanos());
+		}
+		else
+		if(state == FALLING)
 		{
-			fall(((PuyoManager) gm).getGrid());
+			drop((PuyoManager) gm, gm.getTickNanos());
 		}
 	}
 	
+	//After a pop PuyoManager has already worked out where this ball ends up and saved
+	//it a seat there (see PuyoManager.settle), so there's nothing to look out for on
+	//the way down, we just keep stepping until we get there
+	public void drop(PuyoManager pMan, long elapsed)
+	{
+		fallTimer -= elapsed;
+		
+		if(fallTimer <= 0)
+		{
+			incY(32); // fall gradually
+			fallTimer += DELAY;
+		}
+		
+		if(y >= targetY) // made it?
+		{
+			y = targetY;
+			state = SEATED;
+			fallTimer = DELAY;
+			
+			if(y >= 0) // only balls above the screen have nowhere to sit
+				pMan.seat(this);
+		}
+	}
 	
 	
-	public void fall(int[][] grid)
+	
+	//elapsed is the amount of game time that has passed since the last call
+	public void fall(PuyoManager pMan, long elapsed)
 	{
+		int[][] grid = pMan.getGrid();
+		
 		if(y + PuyoPuyo.BALLSIZE >= PuyoPuyo.GROUND) //hit or passed the ground?
 		{
 			y = PuyoPuyo.GROUND - PuyoPuyo.BALLSIZE;
@@ -111,23 +181,23 @@ public class Ball extends GameObj
 		if(state == SEATED)
 		{
 			// now that this ball has found a seat in the grid, lets calculate its
-			//grid position and record our index position there for later
+			//grid position and record our index position (and color) there for later
 			if(x >= 0 && y >= 0) //make sure we're registering for a legit grid spot
 			{
-				grid[gridX()][gridY()] = index;
+				pMan.seat(this);
 			}
 			
 			fallTimer = DELAY;
 			return; // then no longer a need to fall
 		}
 		
-		if(fallTimer == 0)
+		fallTimer -= elapsed;
+		
+		if(fallTimer <= 0)
 		{
 			incY(32); // fall gradually
-			fallTimer  = DELAY;
+			fallTimer += DELAY;
 		}
-		
-		fallTimer--;			
 	}
 	
 }
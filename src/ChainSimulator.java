@@ -0,0 +1,91 @@
+/*
+ * ChainSimulator.java
+ *
+ * Works out what a board will come to without playing it out frame by frame: balls drop,
+ * links pop, and the chain is scored the same way PuyoManager scores it, over and over
+ * until nothing is left to pop. It all happens on a bitboard, so a whole chain takes
+ * microseconds rather than the thousands of ticks it takes on screen, which makes it
+ * cheap enough to try out placements for hints or a computer player.
+ *
+ * A simulator keeps its results (and its own copy of the board when simulating a game) so
+ * that it can be used over and over without allocating. Balls stacked above the top of the
+ * screen aren't on the board, and so play no part; the game is over by then anyway.
+ */
+
+public class ChainSimulator
+{
+	private PuyoBoard board; // copy of a game's board to work on
+	private long[] pops; // scratch space for the cells popping each step
+	
+	private int chains; // steps of the chain that popped anything
+	private int score; // points the chain was worth
+	private int popped; // balls popped altogether
+	private int groups; // links popped altogether
+	
+	//------------- GETTERS -------------
+	public int getChains()				{return chains;}
+	public int getScore()				{return score;}
+	public int getPopped()				{return popped;}
+	public int getGroups()				{return groups;}
+	public PuyoBoard getBoard()			{return board;} // where the last simulate(PuyoManager) ended up
+	//-----------------------------------------
+	
+	public ChainSimulator()
+	{
+		board = new PuyoBoard();
+		pops = new long[2];
+	}
+	
+	// resolves a copy of the game's board from where its chain is at, leaving the game
+	// untouched and the result in getBoard(). Returns the number of chains
+	public int simulate(PuyoManager pMan)
+	{
+		board.copyFrom(pMan.getBoard());
+		return simulate(board, pMan.getChainLevel());
+	}
+	
+	// resolves the given board in place, starting from the given chain level (which
+	// decides what the first pop is worth). Returns the number of chains
+	public int simulate(PuyoBoard b, int chainLevel)
+	{
+		chains = 0;
+		score = 0;
+		popped = 0;
+		groups = 0;
+		
+		while(true)
+		{
+			b.applyGravity();
+			
+			int found = b.findPops(pops);
+			if(found == 0)
+				return chains;
+			
+			int n = Long.bitCount(pops[0]) + Long.bitCount(pops[1]);
+			b.removeAll(pops[0], pops[1]);
+			
+			score += n * PuyoManager.POINTS * (chainLevel + 1);
+			popped += n;
+			groups += found;
+			chains++;
+			chainLevel++;
+		}
+	}
+	
+	// drops a pair onto the board as the game would land it, the first ball in column x1
+	// and the second in x2 (the second lands on the first when they share a column), then
+	// resolves the board in place. Returns the number of chains, or -1 if the pair didn't fit
+	public int place(PuyoBoard b, int x1, int color1, int x2, int color2)
+	{
+		if(b.drop(x1, color1) == -1 || b.drop(x2, color2) == -1)
+		{
+			chains = 0;
+			score = 0;
+			popped = 0;
+			groups = 0;
+			return -1;
+		}
+		
+		return simulate(b, PuyoManager.DEFAULT_CHAIN_LEVEL);
+	}
+}
@@ -0,0 +1,29 @@
+/*
+ * GameOverEvent.java
+ *
+ * Flight Recorder event for the end of a game. Off unless a recording turns it on.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+@Name("puyo.GameOver")
+@Label("Game Over")
+@Category({"Liquid Pro Quo", "Puyo-Puyo"})
+@Enabled(false)
+@StackTrace(false)
+public class GameOverEvent extends Event
+{
+	@Label("Score")
+	public int score;
+	
+	@Label("Balls")
+	@Description("Balls on the board")
+	public int balls;
+}
@@ -0,0 +1,34 @@
+/*
+ * GeneratePairEvent.java
+ *
+ * Flight Recorder event for each new pair of balls dropped in. Off unless a recording
+ * turns it on.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+@Name("puyo.GeneratePair")
+@Label("Generate Pair")
+@Category({"Liquid Pro Quo", "Puyo-Puyo"})
+@Description("A new pair of balls dropped in")
+@Enabled(false)
+@StackTrace(false)
+public class GeneratePairEvent extends Event
+{
+	@Label("First Color")
+	public int color1;
+	
+	@Label("Second Color")
+	public int color2;
+	
+	@Label("Balls")
+	@Description("Balls on the board, counting the new pair")
+	public int balls;
+}
@@ -0,0 +1,227 @@
+/*
+ * PuyoBatch.java
+ *
+ * Plays large numbers of seeded Puyo-Puyo games with no display, spread across every core,
+ * for balancing and regression work. The games are split between the threads of a
+ * fork/join pool, whose work stealing keeps every thread busy no matter how long each game
+ * happens to run. Each piece of work tallies its own games into histograms of its own,
+ * which are only added together once it's done, so the threads share nothing while they
+ * play. Every game is seeded (game i gets seed + i), so a batch always plays out the same
+ * no matter how many threads it's run on.
+ * Usage: java PuyoBatch [games] [threads] [seed] [maxTicks] [player]
+ *   games - number of games to play (default 1000)
+ *   threads - threads to play them on (default one per core)
+ *   seed - seed of the first game (default 1)
+ *   maxTicks - ticks a game may run before it's cut short, 0 for no limit (default 1000000)
+ *   player - "random" to tap keys at random (the default) or "bot" for PuyoBot
+ */
+
+import java.io.PrintStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.lpq.game.GameRandom;
+import com.lpq.game.HeadlessDriver;
+import com.lpq.game.Histogram;
+import com.lpq.game.InputSource;
+
+
+public class PuyoBatch
+{
+	public static final int DEFAULT_GAMES = 1000;
+	public static final long DEFAULT_SEED = 1;
+	public static final long DEFAULT_MAX_TICKS = 1000000;
+	public static final int GAMES_PER_TASK = 4; // games a piece of work plays itself rather than splitting
+
+	//Makes the player for each game, given that game's seed. Called from any of the pool's
+	//threads, and each player only ever plays the one game
+	public interface PlayerFactory
+	{
+		public InputSource create(long seed);
+	}
+
+	//The default player, tapping keys at random (see RandomTapper)
+	public static final PlayerFactory RANDOM_TAPPER = new PlayerFactory() {
+		public InputSource create(long seed) {return new RandomTapper(new GameRandom(~seed));}
+	};
+
+	//PuyoBot, searching on the thread playing its game (the games already keep every core
+	//busy) and always to its full depth, so that a batch still plays out the same every time
+	public static final PlayerFactory BOT = new PlayerFactory() {
+		public InputSource create(long seed) 
+		{
+			return new PuyoBot(PuyoBot.DEFAULT_BEAM_WIDTH, PuyoBot.DEFAULT_LOOKAHEAD, 0, null);
+		}
+	};
+
+	//What came of a batch (or part of one)
+	public static class Results
+	{
+		public final Histogram scores; // final score of each game
+		public final Histogram chains; // length of every chain that popped anything
+		public final Histogram ticks; // ticks each game lasted
+
+		public int games;
+		public int cutShort; // games that hit the tick limit before they were over
+		public long totalTicks;
+		public long positions; // boards PuyoBots tried out, if they were playing
+		public long searchNanos; // and the time they spent doing it
+		public long nanos; // wall clock time the whole batch took
+
+		public Results()
+		{
+			scores = new Histogram();
+			chains = new Histogram();
+			ticks = new Histogram();
+		}
+
+		public void add(Results other)
+		{
+			scores.add(other.scores);
+			chains.add(other.chains);
+			ticks.add(other.ticks);
+			games += other.games;
+			cutShort += other.cutShort;
+			totalTicks += other.totalTicks;
+			positions += other.positions;
+			searchNanos += other.searchNanos;
+		}
+
+		public double getGamesPerSecond()	{return games / (nanos / 1e9);}
+		public double getTicksPerSecond()	{return totalTicks / (nanos / 1e9);}
+
+		public void print(PrintStream out)
+		{
+			out.printf("Games: %d   Cut short: %d   Time: %.2fs%n", games, cutShort, nanos / 1e9);
+			out.printf("Games/sec: %.1f   Ticks/sec: %.0f%n", getGamesPerSecond(), getTicksPerSecond());
+			if(positions > 0)
+				out.printf("Bot positions: %d   Positions/sec (per thread searching): %.0f%n", 
+						positions, positions / (searchNanos / 1e9));
+			out.printf("%-14s %10s %10s %10s %10s %10s %10s%n",
+					"", "count", "mean", "p50", "p90", "p99", "max");
+			print(out, "Score", scores);
+			print(out, "Chain length", chains);
+			print(out, "Game ticks", ticks);
+		}
+
+		private static void print(PrintStream out, String name, Histogram h)
+		{
+			out.printf("%-14s %10d %10.1f %10d %10d %10d %10d%n", name, h.getCount(), h.getMean(),
+					h.getPercentile(50), h.getPercentile(90), h.getPercentile(99), h.getMax());
+		}
+	}
+
+	private ForkJoinPool pool;
+	private PlayerFactory players;
+
+	public PuyoBatch(int threads, PlayerFactory players)
+	{
+		pool = new ForkJoinPool(threads);
+		this.players = players;
+	}
+
+	public int getThreads()				{return pool.getParallelism();}
+
+	//plays games seeded seed to seed + games - 1, returning once every one is over
+	public Results run(int games, long seed, long maxTicks)
+	{
+		long start = System.nanoTime();
+		Results results = pool.invoke(new BatchTask(seed, maxTicks, 0, games));
+		results.nanos = System.nanoTime() - start;
+
+		return results;
+	}
+
+	//lets the pool's threads go once no more batches are to be run
+	public void shutdown()
+	{
+		pool.shutdown();
+	}
+
+	//plays a single game through to the end (or maxTicks, 0 for no limit), adding it to
+	//the results
+	public void play(long seed, long maxTicks, Results results)
+	{
+		PuyoManager pMan = new PuyoManager();
+		pMan.setRandom(new GameRandom(seed));
+		pMan.setChainLengths(results.chains);
+
+		HeadlessDriver driver = new HeadlessDriver(pMan, PuyoPuyo.INTERVAL, false);
+		InputSource player = players.create(seed);
+		driver.setInputSource(player);
+
+		long ticks = driver.run(maxTicks);
+
+		results.scores.record(pMan.getScore());
+		results.ticks.record(ticks);
+		results.games++;
+		results.totalTicks += ticks;
+		if(!pMan.isGameOver())
+			results.cutShort++;
+		
+		if(player instanceof PuyoBot)
+		{
+			results.positions += ((PuyoBot) player).getPositions();
+			results.searchNanos += ((PuyoBot) player).getSearchNanos();
+		}
+	}
+
+	//A run of games, which splits itself in half until it's small enough to just play.
+	//Idle threads steal the halves that haven't been started yet
+	private class BatchTask extends RecursiveTask<Results>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private long seed, maxTicks;
+		private int from, to; // games to play, to exclusive
+
+		public BatchTask(long seed, long maxTicks, int from, int to)
+		{
+			this.seed = seed;
+			this.maxTicks = maxTicks;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Results compute()
+		{
+			if(to - from <= GAMES_PER_TASK)
+			{
+				Results results = new Results();
+				for(int i = from; i < to; i++)
+					play(seed + i, maxTicks, results);
+
+				return results;
+			}
+
+			int mid = (from + to) >>> 1;
+			BatchTask first = new BatchTask(seed, maxTicks, from, mid);
+			first.fork();
+
+			Results results = new BatchTask(seed, maxTicks, mid, to).compute();
+			results.add(first.join());
+
+			return results;
+		}
+	}
+
+	public static void main(String [] args)
+	{
+		int games = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_GAMES;
+		int threads = (args.length > 1) ? Integer.parseInt(args[1])
+				: Runtime.getRuntime().availableProcessors();
+		long seed = (args.length > 2) ? Long.parseLong(args[2]) : DEFAULT_SEED;
+		long maxTicks = (args.length > 3) ? Long.parseLong(args[3]) : DEFAULT_MAX_TICKS;
+
+		boolean bot = (args.length > 4) && args[4].equals("bot");
+
+		PuyoBatch batch = new PuyoBatch(threads, bot ? BOT : RANDOM_TAPPER);
+		System.out.println("Playing " + games + " games on " + batch.getThreads() + " threads");
+
+		Results results = batch.run(games, seed, maxTicks);
+		batch.shutdown();
+
+		results.print(System.out);
+	}
+}
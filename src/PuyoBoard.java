@@ -0,0 +1,393 @@
+/*
+ * PuyoBoard.java
+ *
+ * Bitboard model of the 6 x 12 play field. Each color gets its own bitmask of the
+ * cells it occupies, along with one more mask for every occupied cell. That lets whole
+ * board questions (which balls are linked, where does everything land, who's next to
+ * who) be answered with a handful of shifts and ands instead of walking ball objects,
+ * and lets the whole board be copied in a few words.
+ *
+ * A mask doesn't fit in a single long (72 cells), so each is split in two halves: lo
+ * holds columns 0-2 and hi holds columns 3-5. Within a half every column gets 16 bits,
+ * with its 12 rows in the low bits, row 0 (the top of the screen) first. The 4 spare
+ * bits above each column keep shifted bits from bleeding into the next column, they're
+ * simply masked away after every shift.
+ *
+ * A board can also give its Zobrist hash: every color in every cell has a random key, and
+ * the hash is the xor of the keys of everything on the board, so two boards holding the
+ * same balls always hash the same no matter how they got there. It's worked out when
+ * asked for rather than kept up to date, so boards that are never hashed don't pay for
+ * it. It's meant for spotting positions that have been seen before, e.g. with a
+ * TranspositionTable.
+ */
+
+import java.nio.ByteBuffer;
+
+import com.lpq.game.GameRandom;
+
+
+public class PuyoBoard
+{
+	//------------ CONSTANTS --------------
+	public static final int COLUMNS = 6;
+	public static final int ROWS = 12;
+	public static final int COLORS = 4;
+	public static final int EMPTY = -1;
+
+	public static final int STRIDE = 16; // bits per column
+	public static final long VALID = 0x00000FFF0FFF0FFFL; // every real cell in a half
+	public static final long KEY_SEED = 0x5A0B15710L; // keys are the same every run, so hashes are too
+	//--------------------------------------
+
+	// Zobrist key of each color in each bit of each half: color * 128 + (hi ? 64 : 0) + bit
+	private static final long[] KEYS = new long[COLORS * 128];
+
+	static
+	{
+		GameRandom r = new GameRandom(KEY_SEED);
+		for(int i = 0; i < KEYS.length; i++)
+			KEYS[i] = r.nextLong();
+	}
+
+	private long[] colorLo, colorHi; // cells held by each color
+	private long occLo, occHi; // cells held by anything
+
+	//------------- GETTERS -------------
+	public long getColorLo(int color)	{return colorLo[color];}
+	public long getColorHi(int color)	{return colorHi[color];}
+	public long getOccupiedLo()			{return occLo;}
+	public long getOccupiedHi()			{return occHi;}
+
+	// number of balls on the board
+	public int count()					{return Long.bitCount(occLo) + Long.bitCount(occHi);}
+		//-----------------------------------------
+
+	public PuyoBoard()
+	{
+		colorLo = new long[COLORS];
+		colorHi = new long[COLORS];
+	}
+
+	public PuyoBoard(PuyoBoard other)
+	{
+		this();
+		copyFrom(other);
+	}
+
+	public PuyoBoard copy()
+	{
+		return new PuyoBoard(this);
+	}
+
+	// makes this board identical to the other, without allocating
+	public void copyFrom(PuyoBoard other)
+	{
+		System.arraycopy(other.colorLo, 0, colorLo, 0, COLORS);
+		System.arraycopy(other.colorHi, 0, colorHi, 0, COLORS);
+		occLo = other.occLo;
+		occHi = other.occHi;
+	}
+
+	public void clear()
+	{
+		for(int i = 0; i < COLORS; i++)
+		{
+			colorLo[i] = 0;
+			colorHi[i] = 0;
+		}
+		occLo = 0;
+		occHi = 0;
+	}
+
+	// writes every color's mask into the buffer
+	public void write(ByteBuffer buf)
+	{
+		for(int i = 0; i < COLORS; i++)
+		{
+			buf.putLong(colorLo[i]);
+			buf.putLong(colorHi[i]);
+		}
+	}
+	
+	// reads masks written by write, working the occupied cells out from them
+	public void read(ByteBuffer buf)
+	{
+		occLo = 0;
+		occHi = 0;
+		
+		for(int i = 0; i < COLORS; i++)
+		{
+			colorLo[i] = buf.getLong() & VALID;
+			colorHi[i] = buf.getLong() & VALID;
+			occLo |= colorLo[i];
+			occHi |= colorHi[i];
+		}
+	}
+	
+	//---------------- CELL ACCESS ----------------
+
+	// bit of the cell at x,y within its half
+	public static long bit(int x, int y)
+	{
+		return 1L << ((x % 3) * STRIDE + y);
+	}
+
+	// true if the x,y cell is set in the mask given by its two halves
+	public static boolean contains(long lo, long hi, int x, int y)
+	{
+		return ((x < 3 ? lo : hi) & bit(x, y)) != 0;
+	}
+
+	public static boolean inBounds(int x, int y)
+	{
+		return x >= 0 && x < COLUMNS && y >= 0 && y < ROWS;
+	}
+
+	// places a ball of the given color at x,y, replacing anything already there
+	public void set(int x, int y, int color)
+	{
+		remove(x, y);
+
+		long b = bit(x, y);
+		if(x < 3)
+		{
+			colorLo[color] |= b;
+			occLo |= b;
+		}
+		else
+		{
+			colorHi[color] |= b;
+			occHi |= b;
+		}
+	}
+
+	public void remove(int x, int y)
+	{
+		long b = ~bit(x, y);
+		if(x < 3)
+		{
+			for(int i = 0; i < COLORS; i++)
+				colorLo[i] &= b;
+			occLo &= b;
+		}
+		else
+		{
+			for(int i = 0; i < COLORS; i++)
+				colorHi[i] &= b;
+			occHi &= b;
+		}
+	}
+
+	// empties every cell of the mask given by its two halves
+	public void removeAll(long lo, long hi)
+	{
+		for(int i = 0; i < COLORS; i++)
+		{
+			colorLo[i] &= ~lo;
+			colorHi[i] &= ~hi;
+		}
+		occLo &= ~lo;
+		occHi &= ~hi;
+	}
+	
+	// drops a ball of the given color down column x onto whatever is there, returning the
+	// row it lands in, or -1 if the column is full. Assumes the column has settled
+	public int drop(int x, int color)
+	{
+		long column = ((x < 3 ? occLo : occHi) >>> ((x % 3) * STRIDE)) & 0xFFF;
+		int y = (column == 0) ? ROWS-1 : Long.numberOfTrailingZeros(column) - 1;
+		
+		if(y < 0)
+			return -1;
+		
+		set(x, y, color);
+		return y;
+	}
+	
+	// height of the stack in column x
+	public int height(int x)
+	{
+		long column = ((x < 3 ? occLo : occHi) >>> ((x % 3) * STRIDE)) & 0xFFF;
+		return (column == 0) ? 0 : ROWS - Long.numberOfTrailingZeros(column);
+	}
+	
+	// color at x,y, or EMPTY
+	public int get(int x, int y)
+	{
+		long b = bit(x, y);
+		long[] half = (x < 3) ? colorLo : colorHi;
+
+		for(int i = 0; i < COLORS; i++)
+		{
+			if((half[i] & b) != 0)
+				return i;
+		}
+
+		return EMPTY;
+	}
+
+	public boolean isEmpty(int x, int y)
+	{
+		return ((x < 3 ? occLo : occHi) & bit(x, y)) == 0;
+	}
+
+	//---------------- BOARD QUERIES ----------------
+
+	// every cell orthogonally next to a cell of the given mask (including the mask itself),
+	// written into out[0] (lo) and out[1] (hi)
+	public static void adjacent(long lo, long hi, long[] out)
+	{
+		// up/down stay within a half, left/right also carry column 2 <-> column 3 across
+		out[0] = (lo | (lo >>> 1) | (lo << 1) | (lo >>> STRIDE) | (lo << STRIDE)
+				| (hi << (2 * STRIDE))) & VALID;
+		out[1] = (hi | (hi >>> 1) | (hi << 1) | (hi >>> STRIDE) | (hi << STRIDE)
+				| (lo >>> (2 * STRIDE))) & VALID;
+	}
+
+	// number of occupied cells orthogonally next to x,y that share its color
+	public int sameColorNeighbors(int x, int y)
+	{
+		int color = get(x, y);
+		if(color == EMPTY)
+			return 0;
+
+		int count = 0;
+		if(y > 0 && get(x, y-1) == color)
+			count++;
+		if(y < ROWS-1 && get(x, y+1) == color)
+			count++;
+		if(x > 0 && get(x-1, y) == color)
+			count++;
+		if(x < COLUMNS-1 && get(x+1, y) == color)
+			count++;
+
+		return count;
+	}
+
+	// flood fills the link of same colored balls containing x,y, writing its cells into
+	// out[0] (lo) and out[1] (hi) and returning how many balls it holds
+	public int group(int x, int y, long[] out)
+	{
+		int color = get(x, y);
+		if(color == EMPTY)
+		{
+			out[0] = 0;
+			out[1] = 0;
+			return 0;
+		}
+
+		fill((x < 3) ? bit(x, y) : 0, (x < 3) ? 0 : bit(x, y), colorLo[color], colorHi[color], out);
+		return Long.bitCount(out[0]) + Long.bitCount(out[1]);
+	}
+
+	// finds every link of 4 or more on the board in a single pass, writing all of their
+	// cells into out[0] (lo) and out[1] (hi) and returning how many links there were.
+	// Each color's mask doubles as the visited set: a link is taken out of what's left
+	// to look at as soon as it's filled, so every ball is examined exactly once
+	public int findPops(long[] out)
+	{
+		long popLo = 0, popHi = 0;
+		int groups = 0;
+
+		for(int i = 0; i < COLORS; i++)
+		{
+			long leftLo = colorLo[i], leftHi = colorHi[i];
+
+			while(leftLo != 0 || leftHi != 0)
+			{
+				// seed from the lowest ball left of this color
+				if(leftLo != 0)
+					fill(Long.lowestOneBit(leftLo), 0, colorLo[i], colorHi[i], out);
+				else
+					fill(0, Long.lowestOneBit(leftHi), colorLo[i], colorHi[i], out);
+
+				leftLo &= ~out[0];
+				leftHi &= ~out[1];
+
+				if(Long.bitCount(out[0]) + Long.bitCount(out[1]) >= 4)
+				{
+					popLo |= out[0];
+					popHi |= out[1];
+					groups++;
+				}
+			}
+		}
+
+		out[0] = popLo;
+		out[1] = popHi;
+		return groups;
+	}
+
+	// grows the seed cells within the given color mask until they stop changing,
+	// leaving the filled link in out
+	private static void fill(long gLo, long gHi, long cLo, long cHi, long[] out)
+	{
+		while(true) // grow the link one step in every direction
+		{
+			adjacent(gLo, gHi, out);
+			long nLo = out[0] & cLo;
+			long nHi = out[1] & cHi;
+
+			if(nLo == gLo && nHi == gHi)
+				break;
+
+			gLo = nLo;
+			gHi = nHi;
+		}
+
+		out[0] = gLo;
+		out[1] = gHi;
+	}
+
+	// drops every ball straight down until it rests on the ground or another ball,
+	// returning true if anything moved
+	public boolean applyGravity()
+	{
+		boolean moved = false;
+
+		while(true)
+		{
+			// a ball can fall a step when the cell right below it (one bit up) is empty
+			long fallLo = occLo & ((~occLo & VALID) >>> 1);
+			long fallHi = occHi & ((~occHi & VALID) >>> 1);
+
+			if(fallLo == 0 && fallHi == 0)
+				return moved;
+
+			moved = true;
+
+			for(int i = 0; i < COLORS; i++)
+			{
+				colorLo[i] = (colorLo[i] & ~fallLo) | ((colorLo[i] & fallLo) << 1);
+				colorHi[i] = (colorHi[i] & ~fallHi) | ((colorHi[i] & fallHi) << 1);
+			}
+			occLo = (occLo & ~fallLo) | (fallLo << 1);
+			occHi = (occHi & ~fallHi) | (fallHi << 1);
+		}
+	}
+
+	//---------------- HASHING ----------------
+
+	// Zobrist hash of everything on the board
+	public long getHash()
+	{
+		long h = 0;
+		for(int i = 0; i < COLORS; i++)
+			h ^= keys(i, false, colorLo[i]) ^ keys(i, true, colorHi[i]);
+		
+		return h;
+	}
+
+	// xor of the keys of every cell in the mask, for one color and half
+	private static long keys(int color, boolean hi, long mask)
+	{
+		long h = 0;
+		while(mask != 0)
+		{
+			h ^= KEYS[color * 128 + (hi ? 64 : 0) + Long.numberOfTrailingZeros(mask)];
+			mask &= mask - 1;
+		}
+		
+		return h;
+	}
+}
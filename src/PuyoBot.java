@@ -0,0 +1,421 @@
+/*
+ * PuyoBot.java
+ *
+ * A computer player, for soak testing the game (or just watching it play itself). When a
+ * new pair comes along the bot works out where it should land with a beam search: every
+ * spot the pair could land in is tried out on a bitboard with ChainSimulator, the best of
+ * the resulting boards are kept, the next pair to come is tried out on each of those, and
+ * so on a few pairs deep. The first move on the way to the best board found is the one
+ * it goes with. Trying out each depth's boards is spread over a fork/join pool, and the
+ * search stops going deeper once its time budget for the move runs out, settling for the
+ * deepest depth it finished.
+ *
+ * Once it's decided, it steers the pair there a step each tick through the same alerts
+ * the keyboard uses (rotate, then slide over, then drop), so its moves get all the same
+ * checks a player's do.
+ */
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.lpq.game.GameManager;
+import com.lpq.game.InputSource;
+
+
+public class PuyoBot implements InputSource
+{
+	//------------ CONSTANTS --------------
+	public static final int DEFAULT_BEAM_WIDTH = 16; // boards kept at each depth
+	public static final int DEFAULT_LOOKAHEAD = 2; // pairs to come looked at, after the current one
+	public static final long DEFAULT_BUDGET = 5000000L; // nanoseconds of searching per move
+	public static final int MIN_TASK = 2; // boards a forked task tries out itself rather than splitting
+
+	// where the partner sits from the faller, in clockwise order
+	public static final int UP = 0;
+	public static final int RIGHT = 1;
+	public static final int DOWN = 2;
+	public static final int LEFT = 3;
+
+	public static final int PLACEMENTS = 22; // ways a pair can land: 6 columns x 2 upright, 5 x 2 on its side
+	public static final int SPAWN_COLUMN = 3; // where new pairs show up
+	public static final int SAFE_HEIGHT = 10; // a pair can only get past columns up to this tall
+
+	// how the board is judged, on top of the points scored getting there
+	public static final double LINK_WEIGHT = 20; // per pair of touching balls of the same color
+	public static final double HEIGHT_WEIGHT = 2; // per row of each column, squared
+	public static final double SPAWN_PENALTY = 1000000; // for burying the spot new pairs show up in
+	//--------------------------------------
+
+	private static final int[] COLUMN = new int[PLACEMENTS]; // faller's column for each placement
+	private static final int[] ORIENT = new int[PLACEMENTS]; // and where its partner sits
+
+	static
+	{
+		int n = 0;
+		for(int x = 0; x < PuyoBoard.COLUMNS; x++)
+		{
+			COLUMN[n] = x;
+			ORIENT[n++] = UP;
+			COLUMN[n] = x;
+			ORIENT[n++] = DOWN;
+		}
+		for(int x = 0; x < PuyoBoard.COLUMNS-1; x++)
+		{
+			COLUMN[n] = x;
+			ORIENT[n++] = RIGHT;
+			COLUMN[n] = x+1;
+			ORIENT[n++] = LEFT;
+		}
+	}
+
+	private int width, lookahead;
+	private long budget; // 0 to always search every pair deep
+	private ForkJoinPool pool; // null to search on the game's own thread
+
+	// the boards kept at the current depth, and the ones being tried out from them
+	private PuyoBoard[] beam, children;
+	private int[] beamScore, childScore; // points scored on the way to each board
+	private int[] beamFirst, childFirst; // placement of the current pair that led to each
+	private double[] childValue; // how good each board tried out looks
+	private int beamSize;
+	private int[] colors; // the current pair's colors, then those of the pairs to come
+	private int[] upcoming; // scratch space for the pairs to come
+	private ChainSimulator sim; // for trying out boards on this thread
+	private ThreadLocal<ChainSimulator> workerSims; // and one for each thread the pool runs it on
+	private long deadline;
+	private volatile boolean outOfTime;
+
+	// what the current pair is being steered to
+	private Ball planned;
+	private int targetColumn, targetOrient;
+
+	private long positions; // boards tried out so far, over every search
+	private long searches, searchNanos;
+	private int depthReached; // depth the last search got to
+
+	//------------- GETTERS -------------
+	public long getPositions()			{return positions;}
+	public long getSearches()			{return searches;}
+	public long getSearchNanos()		{return searchNanos;}
+	public int getDepthReached()		{return depthReached;}
+	public int getTargetColumn()		{return targetColumn;}
+	public int getTargetOrient()		{return targetOrient;}
+	//-----------------------------------------
+
+	// searches the common pool at the default width, depth and budget
+	public PuyoBot()
+	{
+		this(DEFAULT_BEAM_WIDTH, DEFAULT_LOOKAHEAD, DEFAULT_BUDGET, ForkJoinPool.commonPool());
+	}
+
+	public PuyoBot(int width, int lookahead, long budget, ForkJoinPool pool)
+	{
+		this.width = width;
+		this.lookahead = lookahead;
+		this.budget = budget;
+		this.pool = pool;
+
+		beam = new PuyoBoard[width];
+		beamScore = new int[width];
+		beamFirst = new int[width];
+		for(int i = 0; i < width; i++)
+			beam[i] = new PuyoBoard();
+
+		children = new PuyoBoard[width * PLACEMENTS];
+		childScore = new int[children.length];
+		childFirst = new int[children.length];
+		childValue = new double[children.length];
+		for(int i = 0; i < children.length; i++)
+			children[i] = new PuyoBoard();
+
+		colors = new int[2 * (lookahead + 1)];
+		upcoming = new int[2 * lookahead];
+		sim = new ChainSimulator();
+		workerSims = new ThreadLocal<ChainSimulator>() {
+			protected ChainSimulator initialValue() {return new ChainSimulator();}
+		};
+	}
+
+	// steers the current pair a step closer to where it's meant to go, working out where
+	// that is first if it's a new pair
+	public void poll(GameManager gMan, long tick)
+	{
+		PuyoManager pMan = (PuyoManager) gMan;
+		Ball faller = pMan.getFaller();
+
+		if(faller == null) // between pairs, so the next one will be new
+		{
+			planned = null;
+			return;
+		}
+
+		Ball partner = faller.getPartner();
+		if(partner == null || faller.getState() != Ball.INITFALL || partner.getState() != Ball.INITFALL)
+			return; // landing, nothing more to be done
+
+		if(planned == null)
+		{
+			plan(pMan, faller, partner);
+			planned = faller;
+		}
+
+		int orient = orientation(faller, partner);
+		if(orient != targetOrient)
+		{
+			if(orient == (targetOrient + 1) % 4) // a single turn back?
+				pMan.zAlert();
+			else
+				pMan.xAlert();
+		}
+		else
+		if(faller.gridX() < targetColumn)
+			pMan.rightAlert();
+		else
+		if(faller.gridX() > targetColumn)
+			pMan.leftAlert();
+		else
+			pMan.downAlert(); // there, so bring it down
+	}
+
+	//picks where the pair that just showed up should go
+	private void plan(PuyoManager pMan, Ball faller, Ball partner)
+	{
+		colors[0] = faller.getColor();
+		colors[1] = partner.getColor();
+
+		pMan.upcomingColors(upcoming);
+		System.arraycopy(upcoming, 0, colors, 2, upcoming.length);
+
+		int best = search(pMan.getBoard(), colors);
+
+		if(best == -1) // nowhere to go that doesn't lose, so it might as well come straight down
+		{
+			targetColumn = faller.gridX();
+			targetOrient = orientation(faller, partner);
+		}
+		else
+		{
+			targetColumn = COLUMN[best];
+			targetOrient = ORIENT[best];
+		}
+	}
+
+	// searches for the best placement of the first pair of pairColors on the board, looking
+	// at as many of the pairs after it as it has time for. Returns an index into the
+	// placements (see getColumn/getOrient), or -1 if every placement loses
+	public int search(PuyoBoard board, int[] pairColors)
+	{
+		long start = System.nanoTime();
+		deadline = (budget > 0) ? start + budget : Long.MAX_VALUE;
+		outOfTime = false;
+
+		beam[0].copyFrom(board);
+		beamScore[0] = 0;
+		beamFirst[0] = -1;
+		beamSize = 1;
+
+		int best = -1;
+		int pairs = Math.min(lookahead + 1, pairColors.length / 2);
+		depthReached = 0;
+
+		for(int depth = 0; depth < pairs; depth++)
+		{
+			positions += beamSize * PLACEMENTS;
+
+			if(pool == null || beamSize <= MIN_TASK)
+				expand(0, beamSize, depth, pairColors, sim);
+			else
+				pool.invoke(new ExpandTask(0, beamSize, depth, pairColors));
+
+			if(outOfTime && depth > 0) // didn't finish this depth, go with the last one
+				break;
+
+			select();
+			if(beamSize == 0) // everything loses from here
+				break;
+
+			best = beamFirst[0];
+			depthReached = depth + 1;
+		}
+
+		searches++;
+		searchNanos += System.nanoTime() - start;
+
+		return best;
+	}
+
+	//tries out every placement of the depth's pair on the beam's boards from first to last
+	//(exclusive), giving up early once time's up (unless it's the first pair, which always
+	//gets done)
+	private void expand(int first, int last, int depth, int[] pairColors, ChainSimulator s)
+	{
+		int c1 = pairColors[2*depth], c2 = pairColors[2*depth+1];
+
+		for(int p = first; p < last; p++)
+		{
+			if(depth > 0 && (outOfTime || System.nanoTime() > deadline))
+			{
+				outOfTime = true;
+				return;
+			}
+
+			for(int k = 0; k < PLACEMENTS; k++)
+			{
+				int c = p * PLACEMENTS + k;
+				PuyoBoard b = children[c];
+
+				if(!reachable(beam[p], k))
+				{
+					childValue[c] = Double.NEGATIVE_INFINITY;
+					continue;
+				}
+
+				b.copyFrom(beam[p]);
+				if(place(b, k, c1, c2, s) == -1) // no room
+				{
+					childValue[c] = Double.NEGATIVE_INFINITY;
+					continue;
+				}
+
+				childScore[c] = beamScore[p] + s.getScore();
+				childFirst[c] = (depth == 0) ? k : beamFirst[p];
+				childValue[c] = childScore[c] + evaluate(b);
+			}
+		}
+	}
+
+	//keeps the best boards tried out as the beam for the next depth, best first
+	private void select()
+	{
+		int n = beamSize * PLACEMENTS;
+		beamSize = 0;
+
+		while(beamSize < width)
+		{
+			int best = -1;
+			for(int i = 0; i < n; i++)
+			{
+				if(childValue[i] != Double.NEGATIVE_INFINITY && (best == -1 || childValue[i] > childValue[best]))
+					best = i;
+			}
+
+			if(best == -1) // none left
+				return;
+
+			beam[beamSize].copyFrom(children[best]);
+			beamScore[beamSize] = childScore[best];
+			beamFirst[beamSize] = childFirst[best];
+			beamSize++;
+
+			childValue[best] = Double.NEGATIVE_INFINITY;
+		}
+	}
+
+	//how promising a board looks, apart from the points it took to get there: balls of a
+	//color touching are on their way to a pop, tall stacks are on their way to losing
+	public static double evaluate(PuyoBoard b)
+	{
+		int links = 0;
+		for(int i = 0; i < PuyoBoard.COLORS; i++)
+		{
+			long lo = b.getColorLo(i), hi = b.getColorHi(i);
+
+			// up and down within a column, then side to side within and across the halves
+			links += Long.bitCount(lo & (lo >>> 1)) + Long.bitCount(hi & (hi >>> 1));
+			links += Long.bitCount(lo & (lo >>> PuyoBoard.STRIDE)) + Long.bitCount(hi & (hi >>> PuyoBoard.STRIDE));
+			links += Long.bitCount((lo >>> (2 * PuyoBoard.STRIDE)) & hi);
+		}
+
+		double value = links * LINK_WEIGHT;
+		for(int x = 0; x < PuyoBoard.COLUMNS; x++)
+		{
+			int h = b.height(x);
+			value -= h * h * HEIGHT_WEIGHT;
+		}
+
+		if(b.height(SPAWN_COLUMN) > SAFE_HEIGHT)
+			value -= SPAWN_PENALTY;
+
+		return value;
+	}
+
+	//true if a new pair could be steered to the given placement on the board, i.e. every
+	//column it'd have to pass over is low enough to get past
+	public static boolean reachable(PuyoBoard b, int placement)
+	{
+		int x = COLUMN[placement];
+		int partnerX = x + ((ORIENT[placement] == RIGHT) ? 1 : (ORIENT[placement] == LEFT) ? -1 : 0);
+
+		int from = Math.min(SPAWN_COLUMN, Math.min(x, partnerX));
+		int to = Math.max(SPAWN_COLUMN, Math.max(x, partnerX));
+
+		for(int i = from; i <= to; i++)
+		{
+			if(b.height(i) > SAFE_HEIGHT)
+				return false;
+		}
+
+		return true;
+	}
+
+	//lands the pair on the board as the given placement, the lower ball first, and plays
+	//out whatever chain follows. Returns the number of chains, or -1 if there was no room
+	public static int place(PuyoBoard b, int placement, int c1, int c2, ChainSimulator s)
+	{
+		int x = COLUMN[placement];
+
+		switch(ORIENT[placement])
+		{
+		case UP: return s.place(b, x, c1, x, c2);
+		case DOWN: return s.place(b, x, c2, x, c1);
+		case RIGHT: return s.place(b, x, c1, x+1, c2);
+		default: return s.place(b, x, c1, x-1, c2);
+		}
+	}
+
+	public static int getColumn(int placement)		{return COLUMN[placement];}
+	public static int getOrient(int placement)		{return ORIENT[placement];}
+
+	//where the partner sits from the faller
+	public static int orientation(Ball faller, Ball partner)
+	{
+		if(partner.getX() > faller.getX())
+			return RIGHT;
+		if(partner.getX() < faller.getX())
+			return LEFT;
+
+		return (partner.getY() < faller.getY()) ? UP : DOWN;
+	}
+
+	//Tries out a run of the beam's boards, splitting it in half until it's small enough to
+	//just do, each piece with a simulator of its own
+	private class ExpandTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private int first, last, depth;
+		private int[] pairColors;
+
+		public ExpandTask(int first, int last, int depth, int[] pairColors)
+		{
+			this.first = first;
+			this.last = last;
+			this.depth = depth;
+			this.pairColors = pairColors;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if(last - first <= MIN_TASK)
+			{
+				expand(first, last, depth, pairColors, workerSims.get());
+				return;
+			}
+
+			int mid = (first + last) >>> 1;
+			invokeAll(new ExpandTask(first, mid, depth, pairColors),
+					new ExpandTask(mid, last, depth, pairColors));
+		}
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * PuyoHeadless.java
+ * 
+ * Runs Puyo-Puyo without any display, feeding the game random key taps in place of
+ * a player. Meant for soak testing and quick measurements on machines without a
+ * screen. Usage: java PuyoHeadless [maxTicks] [paced] [recording]
+ *   maxTicks - stop after this many ticks, 0 (the default) plays until game over
+ *   paced - "true" to run in real time at PuyoPuyo.INTERVAL ticks per second
+ *   recording - file to record the game to, for PuyoReplay
+ */
+
+import java.io.IOException;
+
+
+import com.lpq.game.GameRandom;
+import com.lpq.game.HeadlessDriver;
+import com.lpq.game.Recording;
+
+
+public class PuyoHeadless
+{
+	public static void main(String [] args) throws IOException
+	{
+		long maxTicks = (args.length > 0) ? Long.parseLong(args[0]) : 0;
+		boolean paced = (args.length > 1) && Boolean.parseBoolean(args[1]);
+		
+		PuyoManager pMan = new PuyoManager();
+		HeadlessDriver driver = new HeadlessDriver(pMan, PuyoPuyo.INTERVAL, paced);
+		driver.setInputSource(new RandomTapper(new GameRandom()));
+		
+		Recording recording = null;
+		if(args.length > 2)
+		{
+			recording = new Recording(pMan.getRandom().getSeed(), PuyoPuyo.INTERVAL);
+			pMan.setRecording(recording);
+		}
+		
+		long start = System.nanoTime();
+		long ticks = driver.run(maxTicks);
+		long elapsed = System.nanoTime() - start;
+		
+		System.out.println("Ticks: " + ticks + "   Score: " + pMan.getScore() + 
+				"   Game Over: " + pMan.isGameOver());
+		System.out.println("Ticks/sec: " + (long)(ticks / (elapsed / 1e9)));
+		
+		if(recording != null)
+		{
+			recording.finish(pMan);
+			recording.write(args[2]);
+			System.out.println("Recorded to " + args[2]);
+		}
+	}
+}
@@ -6,14 +6,17 @@
  * general game mechanics, as well as user info like score. The class also manages
  * a 6 x 12 grid of the the game screen, used for plotting ball positions, allowing
  * for instant look-ups, allowing an easy method of neighbor detection and the
- * avoidance of other expensive calculations like collision detection.   
+ * avoidance of other expensive calculations like collision detection. Alongside the
+ * grid sits a bitboard of the seated balls' colors, which is what links are found on.
  */
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.List;
 
 import com.lpq.game.GameManager;
-import com.lpq.game.GameObj;
+import com.lpq.game.GameRandom;
+import com.lpq.game.Histogram;
 
 
 
@@ -21,40 +24,63 @@ public class PuyoManager extends GameManager
 {
 	public static final int POINTS = 50; // amount each ball is worth
 	public static final int DEFAULT_CHAIN_LEVEL = 0;
+	public static final int STATE_VERSION = 2; // of PuyoManager's part of a snapshot
+	
+	// input event codes
+	public static final int MOVE_LEFT = 0;
+	public static final int MOVE_RIGHT = 1;
+	public static final int MOVE_DOWN = 2;
+	public static final int ROTATE_LEFT = 3; // counter clockwise
+	public static final int ROTATE_RIGHT = 4; // clockwise
 	
 	private int score;
 	private int chainLevel;
 	
 	private boolean resolving;// true when the game is busy resolving a proper color link
 	
-	private List<Ball> stackList; // used to hold refernces during our DFS of the grid
-	private List<Integer> visited; // keeps track of already visited nodes on the grid
-								// during traversal for efficiency
+	private PuyoBoard board; // bitboard of the seated balls, kept in step with the grid
+	private long[] group; // scratch space for the links being examined (lo, hi)
+	private long dirtyLo, dirtyHi; // cells whose balls need their neighbors looked at again
+	private long[] around; // scratch space for the cells around the dirty ones
+	private int[] drops; // scratch space for how far each column's top comes down in a settle
+	private int stackVersion; // bumped whenever the set of seated balls changes
 	
 	private Ball faller; // pointer to current main falling ball
+	private ArrayList<Ball> spareBalls; // popped balls, kept to be used again
+	private Histogram chainLengths; // optional, gets the length of every chain that pops anything
+	private GameRandom upcoming; // scratch copy of random, for looking at the pairs to come
 	
 	private int[][] grid;//let's map out the grid, to avoid calculations and provide convenience
-	
-	private boolean leftAlert, rightAlert, downAlert, zAlert, xAlert;// button pressed?
 
+	@Override
 	public int getScore()				{return score;}
 	public int getChainLevel()			{return chainLevel;}
 	public Ball getFaller()				{return faller;}
 	public int[][] getGrid()			{return grid;}
+	public PuyoBoard getBoard()			{return board;}
+	public int getStackVersion()		{return stackVersion;}
+	public Histogram getChainLengths()	{return chainLengths;}
+	
+	public void setChainLengths(Histogram h)	{chainLengths = h;}
 	
-	public void leftAlert()				{leftAlert = true;}
-	public void rightAlert()			{rightAlert = true;}
-	public void downAlert()				{downAlert = true;}
-	public void xAlert()				{xAlert = true;}
-	public void zAlert()				{zAlert = true;}
+	// button pressed? queue it up for the next tick
+	public void leftAlert()				{input.offer(MOVE_LEFT);}
+	public void rightAlert()			{input.offer(MOVE_RIGHT);}
+	public void downAlert()				{input.offer(MOVE_DOWN);}
+	public void xAlert()				{input.offer(ROTATE_RIGHT);}
+	public void zAlert()				{input.offer(ROTATE_LEFT);}
 	
 	public PuyoManager()
 	{
 		super();
 		score = 0;
 		chainLevel = DEFAULT_CHAIN_LEVEL;
-		stackList = new ArrayList<Ball>();
-		visited = new ArrayList<Integer>();
+		board = new PuyoBoard();
+		group = new long[2];
+		around = new long[2];
+		drops = new int[6];
+		upcoming = new GameRandom(0);
+		spareBalls = new ArrayList<Ball>();
 		
 		grid = new int[6][12];
 
@@ -64,6 +90,8 @@ public class PuyoManager extends GameManager
 	@Override
 	public void update()
 	{
+		tick++;
+		
 		if(faller != null)
 		{	
 			//have both of the most recent balls settled yet?
@@ -73,6 +101,17 @@ public class PuyoManager extends GameManager
 				faller = null;
 				isGameOver = checkGameOver();
 				resolving = true;
+				
+				if(isGameOver)
+				{
+					GameOverEvent event = new GameOverEvent();
+					if(event.shouldCommit())
+					{
+						event.score = score;
+						event.balls = objs.size();
+						event.commit();
+					}
+				}
 			}
 		}
 		else
@@ -82,54 +121,48 @@ public class PuyoManager extends GameManager
 				updateNeighbors();
 				resolving = resolveMatches();
 				if(!resolving) // done with all resolutions?
+				{
+					if(chainLengths != null && chainLevel > DEFAULT_CHAIN_LEVEL)
+						chainLengths.record(chainLevel - DEFAULT_CHAIN_LEVEL);
+					
 					generatePair();
+				}
 			}
 		}
 		
-		//take user input into account
-		if(leftAlert)
+		//take user input into account, every press since last tick in the order they came
+		drainInput();
+		
+		// now update each ball
+		for(int i = 0; i < objs.size(); i++)
 		{
-			this.moveFallerLeft();
-			leftAlert = false;
+			objs.get(i).update(this);
 		}
-		else
-			if(rightAlert)
-			{
-				this.moveFallerRight();
-				rightAlert = false;
-			}
-			else
-				if(downAlert)
-				{
-					this.moveFallerDown();
-					downAlert = false;
-				}
-				else
-					if(zAlert)
-					{
-						this.rotateCounterClockwise();
-						zAlert = false;
-					}
-					else
-						if(xAlert)
-						{
-							this.rotateClockwise();
-							xAlert = false;
-						}
 		
-		// now update each ball
-		for(GameObj b : objs)
+		if(spatial != null)
+			spatial.sync(objs);
+	}
+	
+	//acts on a single button press
+	@Override
+	protected void handleInput(int code, long stamp)
+	{
+		switch(code)
 		{
-			b.update(this);
+		case MOVE_LEFT: moveFallerLeft();break;
+		case MOVE_RIGHT: moveFallerRight();break;
+		case MOVE_DOWN: moveFallerDown();break;
+		case ROTATE_LEFT: rotateCounterClockwise();break;
+		case ROTATE_RIGHT: rotateClockwise();
 		}
 	}
 	
 	//returns true if every ball is seated
 	public boolean checkAllGrounded()
 	{
-		for(GameObj b : objs)
+		for(int i = 0; i < objs.size(); i++)
 		{
-			if(b.getState() != Ball.SEATED)
+			if(objs.get(i).getState() != Ball.SEATED)
 				return false;
 		}
 		
@@ -143,28 +176,55 @@ public class PuyoManager extends GameManager
 		for(int i = 0; i < 6; i++)
 			for(int j = 0; j < 12; j++)
 				grid[i][j] = -1;
+		
+		board.clear();
+		stackVersion++;
+	}
+	
+	//records a ball that has just found its seat in the grid and on the board
+	public void seat(Ball b)
+	{
+		int x = b.gridX(), y = b.gridY();
+		
+		grid[x][y] = b.getIndex();
+		board.set(x, y, b.getColor());
+		
+		long bit = PuyoBoard.bit(x, y);
+		markDirty((x < 3) ? bit : 0, (x < 3) ? 0 : bit);
+		stackVersion++;
+	}
+	
+	//flags the given cells, and every cell next to them, as needing their neighbors updated
+	public void markDirty(long lo, long hi)
+	{
+		PuyoBoard.adjacent(lo, hi, around);
+		dirtyLo |= around[0];
+		dirtyHi |= around[1];
 	}
 	
-	//uses each ball's info to bring the grid's content up to date
+	//uses each ball's info to bring the grid's content up to date. Only seated balls have a
+	//cell, ones still falling (maybe above the screen) get theirs when they land
 	public void updateGrid()
 	{
 		emptyGrid();
 		
 		for(int i = 0; i < objs.size(); i++)
 		{
-			((Ball)objs.get(i)).setIndex(i);
-			grid[((Ball)objs.get(i)).gridX()][((Ball)objs.get(i)).gridY()] = i;
+			Ball b = (Ball)objs.get(i);
+			b.setIndex(i);
+			if(b.getState() == Ball.SEATED)
+				seat(b);
 		}
 	}
 	
 	//Creates two new random ball objects at the top of the screen 
 	public void generatePair()
 	{
-		int color1 = (int)(Math.random()*4); // assign random colors
-		int color2 = (int)(Math.random()*4);
+		int color1 = random.nextInt(4); // assign random colors
+		int color2 = random.nextInt(4);
 		
-		Ball b1 = new Ball(color1, objs.size());
-		Ball b2 = new Ball(color2, objs.size()+1);
+		Ball b1 = newBall(color1, objs.size());
+		Ball b2 = newBall(color2, objs.size()+1);
 		
 		b1.setX(96); //start at 4th column
 		b1.setY(0);
@@ -179,166 +239,73 @@ public class PuyoManager extends GameManager
 		objs.add(b2);
 		
 		chainLevel = DEFAULT_CHAIN_LEVEL;
+		
+		GeneratePairEvent event = new GeneratePairEvent();
+		if(event.shouldCommit())
+		{
+			event.color1 = color1;
+			event.color2 = color2;
+			event.balls = objs.size();
+			event.commit();
+		}
 	}
 	
-	//Searches grid and uses it's various helper methods to
-	//update each ball on its connected neighbors
-	//update graphics
-	//goes through each ball and uses grid to update the neighbor list
-	public void updateNeighbors()
+	//Fills out with the colors of the pairs still to come, in the order generatePair will
+	//hand them out: out[2*i] and out[2*i+1] for the i'th pair after the current one. The
+	//game has no preview window, but the colors are already settled by the random's
+	//state, so this works them out on a copy of it without using any up
+	public void upcomingColors(int[] out)
 	{
-		for(int i = 0; i < objs.size(); i++)
+		upcoming.setState(random.getState());
+		
+		for(int i = 0; i + 1 < out.length; i += 2)
 		{
-			Ball b = (Ball)objs.get(i);
-			b.clearNeighbors();
-
-			//for efficiency, let's figure out where the ball is to avoid useless checks
-			//first at the top
-			if(b.getY() == 0)
-				updateNeighborsHelpTop(b);
-			else
-			//next the bottom row
-				if(b.getY() == PuyoPuyo.SCREENHEIGHT - 32)
-					updateNeighborsHelpBottom(b);
-				else
-				//left side?; note the corner cases have already been handled	
-					if(b.getX() == 0)
-						updateNeighborsHelpLeft(b);
-					else
-					//right side?; note the corner cases have already been handled	
-						if(b.getX() == PuyoPuyo.SCREENWIDTH - 32)
-							updateNeighborsHelpRight(b);
-						//Anywhere else in the middle	
-							else
-								updateNeighborsHelp(b);
-		}
-	}
-	
-	//Helper Method for updating neighbors
-	public void updateNeighborsHelp(Ball b)
-	{
-		int neighbor1, neighbor2, neighbor3, neighbor4;
-		
-		neighbor1 = grid[b.gridX()][b.gridY()+1];
-		neighbor2 = grid[b.gridX()][b.gridY()-1];
-		neighbor3 = grid[b.gridX()+1][b.gridY()];
-		neighbor4 = grid[b.gridX()-1][b.gridY()];
-		if(neighbor1 != -1) //someone there?
-			b.addNeighbor((Ball)objs.get(neighbor1));
-		if(neighbor2 != -1) //someone there?
-			b.addNeighbor((Ball)objs.get(neighbor2));
-		if(neighbor3 != -1) //someone there?
-			b.addNeighbor((Ball)objs.get(neighbor3));
-		if(neighbor4 != -1) //someone there?
-			b.addNeighbor((Ball)objs.get(neighbor4));
-	}
-	
-	//Helper Method for updating neighbors
-	public void updateNeighborsHelpTop(Ball b)
-	{
-		int neighbor1, neighbor2, neighbor3;
-		
-		if(b.getX() == 0) //top left corner?
-		{
-			neighbor1 = grid[b.gridX()][b.gridY()+1];
-			neighbor2 = grid[b.gridX()+1][b.gridY()];
-			if(neighbor1 != -1) //someone there?
-				b.addNeighbor((Ball)objs.get(neighbor1));
-			if(neighbor2 != -1) //someone there?
-				b.addNeighbor((Ball)objs.get(neighbor2));
+			out[i] = upcoming.nextInt(4);
+			out[i+1] = upcoming.nextInt(4);
 		}
-		else
-			if(b.getX() == PuyoPuyo.SCREENWIDTH - 32) //top right corner?
-			{
-				neighbor1 = grid[b.gridX()][b.gridY()+1];
-				neighbor2 = grid[b.gridX()-1][b.gridY()];
-				if(neighbor1 != -1) //someone there?
-					b.addNeighbor((Ball)objs.get(neighbor1));
-				if(neighbor2 != -1) //someone there?
-					b.addNeighbor((Ball)objs.get(neighbor2));
-			}
-			else //anywhere else up top
-			{
-				neighbor1 = grid[b.gridX()][b.gridY()+1];
-				neighbor2 = grid[b.gridX()+1][b.gridY()];
-				neighbor3 = grid[b.gridX()-1][b.gridY()];
-				if(neighbor1 != -1) //someone there?
-					b.addNeighbor((Ball)objs.get(neighbor1));
-				if(neighbor2 != -1) //someone there?
-					b.addNeighbor((Ball)objs.get(neighbor2));
-				if(neighbor3 != -1) //someone there?
-					b.addNeighbor((Ball)objs.get(neighbor3));
-			}
 	}
 	
-	//Helper Method for updating neighbors
-	public void updateNeighborsHelpBottom(Ball b)
+	//Brings each ball's neighbors up to date, only visiting the cells that have been
+	//touched (by a landing, pop or fall) since the last time around
+	public void updateNeighbors()
 	{
-		int neighbor1, neighbor2, neighbor3;
+		updateNeighbors(dirtyLo, 0);
+		updateNeighbors(dirtyHi, 3);
 		
-		if(b.getX() == 0) //bottom left corner?
+		dirtyLo = 0;
+		dirtyHi = 0;
+	}
+	
+	//Helper Method for updating neighbors of each dirty cell in one half of the board,
+	//firstColumn being the column the half starts at
+	private void updateNeighbors(long dirty, int firstColumn)
+	{
+		while(dirty != 0)
 		{
-			neighbor1 = grid[b.gridX()][b.gridY()-1];
-			neighbor2 = grid[b.gridX()+1][b.gridY()];
-			if(neighbor1 != -1) //someone there?
-				b.addNeighbor((Ball)objs.get(neighbor1));
-			if(neighbor2 != -1) //someone there?
-				b.addNeighbor((Ball)objs.get(neighbor2));
+			int bit = Long.numberOfTrailingZeros(dirty);
+			dirty &= dirty - 1;
+			
+			int x = firstColumn + bit / PuyoBoard.STRIDE;
+			int y = bit % PuyoBoard.STRIDE;
+			
+			if(grid[x][y] != -1) //someone there?
+				updateNeighbors((Ball)objs.get(grid[x][y]), x, y);
 		}
-		else
-			if(b.getX() == PuyoPuyo.SCREENWIDTH - 32) //bottom right corner?
-			{
-				neighbor1 = grid[b.gridX()][b.gridY()-1];
-				neighbor2 = grid[b.gridX()-1][b.gridY()];
-				if(neighbor1 != -1) //someone there?
-					b.addNeighbor((Ball)objs.get(neighbor1));
-				if(neighbor2 != -1) //someone there?
-					b.addNeighbor((Ball)objs.get(neighbor2));
-			}
-			else //anywhere else up down there
-			{
-				neighbor1 = grid[b.gridX()][b.gridY()-1];
-				neighbor2 = grid[b.gridX()+1][b.gridY()];
-				neighbor3 = grid[b.gridX()-1][b.gridY()];
-				if(neighbor1 != -1) //someone there?
-					b.addNeighbor((Ball)objs.get(neighbor1));
-				if(neighbor2 != -1) //someone there?
-					b.addNeighbor((Ball)objs.get(neighbor2));
-				if(neighbor3 != -1) //someone there?
-					b.addNeighbor((Ball)objs.get(neighbor3));
-			}
 	}
 	
-	//Helper Method for updating neighbors
-	public void updateNeighborsHelpLeft(Ball b)
+	//Helper Method for updating a single ball's neighbors straight from the grid
+	public void updateNeighbors(Ball b, int x, int y)
 	{
-		int neighbor1, neighbor2, neighbor3;
-		
-		neighbor1 = grid[b.gridX()][b.gridY()+1];
-		neighbor2 = grid[b.gridX()][b.gridY()-1];
-		neighbor3 = grid[b.gridX()+1][b.gridY()];
-		if(neighbor1 != -1) //someone there?
-			b.addNeighbor((Ball)objs.get(neighbor1));
-		if(neighbor2 != -1) //someone there?
-			b.addNeighbor((Ball)objs.get(neighbor2));
-		if(neighbor3 != -1) //someone there?
-			b.addNeighbor((Ball)objs.get(neighbor3));
+		b.setNeighbor(Ball.UP, (y > 0) ? ballAt(x, y-1) : null);
+		b.setNeighbor(Ball.DOWN, (y < 11) ? ballAt(x, y+1) : null);
+		b.setNeighbor(Ball.LEFT, (x > 0) ? ballAt(x-1, y) : null);
+		b.setNeighbor(Ball.RIGHT, (x < 5) ? ballAt(x+1, y) : null);
 	}
 	
-	//Helper Method for updating neighbors
-	public void updateNeighborsHelpRight(Ball b)
+	//the ball seated at x,y on the grid, or null if there isn't one
+	public Ball ballAt(int x, int y)
 	{
-		int neighbor1, neighbor2, neighbor3;
-		
-		neighbor1 = grid[b.gridX()][b.gridY()+1];
-		neighbor2 = grid[b.gridX()][b.gridY()-1];
-		neighbor3 = grid[b.gridX()-1][b.gridY()];
-		if(neighbor1 != -1) //someone there?
-			b.addNeighbor((Ball)objs.get(neighbor1));
-		if(neighbor2 != -1) //someone there?
-			b.addNeighbor((Ball)objs.get(neighbor2));
-		if(neighbor3 != -1) //someone there?
-			b.addNeighbor((Ball)objs.get(neighbor3));
+		return (grid[x][y] == -1) ? null : (Ball)objs.get(grid[x][y]);
 	}
 	
 	//Checks for a losing game condition. This would occur when a ball has been
@@ -357,130 +324,342 @@ public class PuyoManager extends GameManager
 		return false;
 	}
 	
-	//We perform a Depth First Search on our grid looking for a color link of
-	//appropriate length, popping each ball in the link when found, then updating
-	//our grid
+	//We search the bitboard for every color link of appropriate length at once, popping
+	//each ball in those links, awarding points for them, then updating our grid. Links
+	//that pop together all count towards the same step of the chain
 	public boolean resolveMatches()
-	{		
-		stackList.clear(); // start fresh for this round
-		boolean found  = false; // true when a pattern of 4+ is found
+	{
+		ResolveMatchesEvent event = new ResolveMatchesEvent();
+		event.begin();
 		
-		for(int i = 0; i < objs.size(); i++)
+		int groups = board.findPops(group);
+		
+		if(event.shouldCommit())
 		{
-			Ball b = (Ball)objs.get(i);
-			int currColor = b.getColor();
-			boolean skip = false;
-			
-			//to avoid wasting a huge amount of time re-checking nodes of a too-short
-			//link, lets make sure this ball is one we haven't already seen
-			for(int j = 0; j < visited.size(); j++)
-			{
-				if(b.getIndex() == visited.get(j))// seen this 1 before?
-				{
-					skip = true;// then don't bother
-					break;
-				}
-			}
-			if(skip)
-			{
-				skip = false;
-				continue;
-			}
-			
-			stackList.add(b); // add to our link's stack
-			visited.add(b.getIndex()); // add to the visited list
-			
-			//Examine all neighbors for a match
-			for(int j = 0; j < b.getNeighbors().size(); j++)
-			{
-				Ball b2 = b.getNeighbor(j);
-				if(b2.getColor() == currColor)
-				{
-					stackList.add(b2); //then add to stack
-					visited.add(b2.getIndex());
-					
-					innerResolve(b2); // now let's search this member of the chain
-				}
-			}
+			event.groups = groups;
+			event.popped = Long.bitCount(group[0]) + Long.bitCount(group[1]);
+			event.chainLevel = chainLevel;
+			event.score = score + event.popped * POINTS * (chainLevel+1);
+			event.commit();
+		}
+		
+		if(groups == 0)
+			return false; // no matches currently on the board
+		
+		markDirty(group[0], group[1]); // whoever was next to a popped ball needs to know
+		
+		// now we pop all balls in the links, and award points appropriately. Going from the
+		//back, whatever removeBall moves into a popped ball's place has already been looked at
+		for(int i = objs.size()-1; i >= 0; i--)
+		{
+			Ball temp = (Ball)objs.get(i);
 			
-			if(stackList.size() >= 4)
+			if(temp.getY() >= 0 && PuyoBoard.contains(group[0], group[1], temp.gridX(), temp.gridY()))
 			{
-				found = true;
-				break;
+				score += POINTS * (chainLevel+1);
+				removeBall(temp);
 			}
-			else
-				stackList.clear();// otherwise start fresh and move on
 		}
 		
-		visited.clear(); // done with this list for now
+		settle();
 		
-		if(found)
+		chainLevel++;
+		return true; // we need to search again since a new pattern may have resulted
+	}
+	
+	//Brings down everything a pop left hanging. Each column is packed down in a single
+	//pass from the ground up, so every ball's landing spot is known straight away: its
+	//grid entry and board cell move there at once, keeping both right the whole time,
+	//and the ball itself is left to fall down to it (see Ball.drop)
+	private void settle()
+	{
+		for(int x = 0; x < 6; x++)
 		{
-			// now we pop all elements on the list, and award points appropriately
-			for(int i = 0; i < stackList.size();i++)
+			int row = 11; // next spot to fill, working up from the ground
+			
+			for(int y = 11; y >= 0; y--)
 			{
-				Ball temp = stackList.get(i);
-				objs.remove(temp);
-				score += POINTS * (chainLevel+1);
+				if(grid[x][y] == -1)
+					continue;
+				
+				if(y != row)
+					dropTo((Ball)objs.get(grid[x][y]), x, y, row);
+				
+				row--;
 			}
 			
-			updateBallIndicies();
-			emptyGrid();
+			drops[x] = row + 1; // rows the top of this column comes down
+		}
+		
+		//balls stacked above the screen (only ever there once the game's lost) come down
+		//as far as the top of their column did
+		for(int i = 0; i < objs.size(); i++)
+		{
+			Ball b = (Ball)objs.get(i);
 			
-			for(int i = 0; i < objs.size(); i++)
+			if(b.getState() == Ball.SEATED && b.getY() < 0 && drops[b.gridX()] > 0)
 			{
-				objs.get(i).setState(Ball.FALLING);
+				dropTo(b, b.gridX(), -1, b.gridY() + drops[b.gridX()]);
 			}
-			
-			chainLevel++;
-			return true; // we need to search again since a new pattern may have resulted
 		}
-		else
-			return false; // no matches currently on the board
 		
+		stackVersion++;
 	}
 	
-	//Recursively searches through each ball's neighbors for common color links
-	public void innerResolve(Ball b)
+	//sends a ball falling from row y of column x (-1 if it's above the screen) to the given
+	//row, moving its grid entry and board cell there ahead of it
+	private void dropTo(Ball b, int x, int y, int row)
 	{
-		boolean skip = false; // tells us if we've been at this node already
+		long cells = 0;
 		
-		for(int i = 0; i < b.getNeighbors().size(); i++)
+		if(y >= 0)
 		{
-			Ball b2 = b.getNeighbor(i);
-			
-			for(int j = 0; j < visited.size();j++)
-			{
-				if(b2.getIndex() == visited.get(j)) //have we already examined this ball?
-				{
-					skip = true;
-					break;
-				}
-			}
-			if(skip)
-			{
-				skip = false;
-				continue;
-			}
+			grid[x][y] = -1;
+			board.remove(x, y);
+			cells |= PuyoBoard.bit(x, y);
+		}
+		
+		if(row >= 0)
+		{
+			grid[x][row] = b.getIndex();
+			board.set(x, row, b.getColor());
+			cells |= PuyoBoard.bit(x, row);
+		}
+		
+		markDirty((x < 3) ? cells : 0, (x < 3) ? 0 : cells);
+		
+		b.setTargetY(row * PuyoPuyo.BALLSIZE);
+		b.setState(Ball.FALLING);
+	}
+	
+	//row of the grid holding the ball's entry, or -1 if it doesn't have one (yet)
+	private int seatRow(Ball b)
+	{
+		if(b.getState() == Ball.SEATED)
+			return (b.getY() >= 0) ? b.gridY() : -1;
+		
+		if(b.getState() == Ball.FALLING) // already holds its landing spot
+			return (b.getTargetY() >= 0) ? b.getTargetY() / PuyoPuyo.BALLSIZE : -1;
+		
+		return -1;
+	}
+	
+	//a ball of the given color and index, reusing a popped one if there are any
+	public Ball newBall(int color, int index)
+	{
+		if(spareBalls.isEmpty())
+			return new Ball(color, index);
+		
+		Ball b = spareBalls.remove(spareBalls.size()-1);
+		b.reset(color, index);
+		return b;
+	}
+	
+	//takes a ball out of the game by moving the last ball into its place, so only that
+	//one ball's index (and grid cell) needs fixing. The ball is kept to be used again
+	public void removeBall(Ball b)
+	{
+		int i = b.getIndex();
+		int last = objs.size()-1;
+		
+		int row = seatRow(b);
+		if(row != -1 && grid[b.gridX()][row] == i)
+		{
+			grid[b.gridX()][row] = -1;
+			board.remove(b.gridX(), row);
+			stackVersion++;
+		}
+		
+		if(i != last)
+		{
+			Ball moved = (Ball)objs.get(last);
+			objs.set(i, moved);
+			moved.setIndex(i);
 			
-			if(b2.getColor() == b.getColor())
-			{
-				stackList.add(b2);
-				visited.add(b2.getIndex());
-				innerResolve(b2);
-			}
+			int movedRow = seatRow(moved);
+			if(movedRow != -1 && grid[moved.gridX()][movedRow] == last)
+				grid[moved.gridX()][movedRow] = i;
 		}
+		
+		objs.remove(last);
+		b.setPartner(null);
+		b.clearNeighbors();
+		spareBalls.add(b);
+	}
+	
+	//the usual objects' positions and states, plus the score and every seated ball's color
+	@Override
+	public long stateHash()
+	{
+		long h = super.stateHash();
+		h = h * 31 + score;
+		h = h * 31 + chainLevel;
+		
+		for(int i = 0; i < PuyoBoard.COLORS; i++)
+		{
+			h = h * 31 + board.getColorLo(i);
+			h = h * 31 + board.getColorHi(i);
+		}
+		
+		return h;
 	}
 	
-	//used to keep accurate values after balls have been popped from list
-	public void updateBallIndicies()
+	//A copy of this game, as far along as it is now
+	public PuyoManager copy()
 	{
+		PuyoManager other = new PuyoManager();
+		other.setTickNanos(tickNanos);
+		
+		try
+		{
+			other.restore(snapshot());
+		} catch (IOException e) 
+		{
+			throw new IllegalStateException("couldn't read back our own snapshot", e);
+		}
+		
+		return other;
+	}
+	
+	//our part of a snapshot: scores, the board, then every ball with its partner written
+	//as an index into objs (-1 for none)
+	@Override
+	protected void writeGameState(ByteBuffer buf)
+	{
+		buf.put((byte)STATE_VERSION);
+		buf.putInt(score);
+		buf.putInt(chainLevel);
+		buf.put((byte)(resolving ? 1 : 0));
+		buf.putLong(dirtyLo);
+		buf.putLong(dirtyHi);
+		
+		board.write(buf);
+		for(int i = 0; i < 6; i++)
+			for(int j = 0; j < 12; j++)
+				buf.put((byte)grid[i][j]);
+		
+		buf.putShort((short)objs.size());
+		buf.putShort((short)((faller == null) ? -1 : faller.getIndex()));
+		
 		for(int i = 0; i < objs.size(); i++)
 		{
-			((Ball)objs.get(i)).setIndex(i);
+			Ball b = (Ball)objs.get(i);
+			
+			buf.put((byte)b.getColor());
+			buf.put((byte)b.getState());
+			buf.putShort((short)b.getX());
+			buf.putShort((short)b.getY());
+			buf.putShort((short)b.getTargetY());
+			buf.putLong(b.getFallTimer());
+			buf.putShort((short)((b.getPartner() == null) ? -1 : b.getPartner().getIndex()));
 		}
 	}
 	
+	//reads the whole of our part into locals and checks it over before touching anything,
+	//so a bad snapshot leaves the game as it was
+	@Override
+	protected void readGameState(ByteBuffer buf) throws IOException
+	{
+		int version = buf.get();
+		if(version != STATE_VERSION)
+			throw new IOException("Puyo snapshot version " + version + ", expected " + STATE_VERSION);
+		
+		int newScore = buf.getInt();
+		int newChainLevel = buf.getInt();
+		boolean newResolving = buf.get() != 0;
+		long newDirtyLo = buf.getLong();
+		long newDirtyHi = buf.getLong();
+		
+		PuyoBoard newBoard = new PuyoBoard();
+		newBoard.read(buf);
+		
+		byte[] cells = new byte[6 * 12];
+		buf.get(cells);
+		
+		int count = buf.getShort();
+		int fallerIndex = buf.getShort();
+		if(count < 0)
+			throw new IOException("snapshot has " + count + " balls");
+		
+		int[] colors = new int[count];
+		int[] states = new int[count];
+		int[] xs = new int[count];
+		int[] ys = new int[count];
+		int[] targets = new int[count];
+		long[] timers = new long[count];
+		int[] partners = new int[count];
+		
+		for(int i = 0; i < count; i++)
+		{
+			colors[i] = buf.get();
+			states[i] = buf.get();
+			xs[i] = buf.getShort();
+			ys[i] = buf.getShort();
+			targets[i] = buf.getShort();
+			timers[i] = buf.getLong();
+			partners[i] = buf.getShort();
+			checkIndex(partners[i], count);
+		}
+		
+		checkIndex(fallerIndex, count);
+		for(int i = 0; i < cells.length; i++)
+			if(cells[i] < -1 || cells[i] >= count)
+				throw new IOException("snapshot's grid refers to ball " + cells[i] + " of " + count);
+		
+		// all good, so in with the new state. The old balls are kept around to be used for
+		// the new ones
+		while(!objs.isEmpty())
+			removeBall((Ball)objs.get(objs.size()-1));
+		
+		score = newScore;
+		chainLevel = newChainLevel;
+		resolving = newResolving;
+		dirtyLo = newDirtyLo;
+		dirtyHi = newDirtyHi;
+		
+		board.copyFrom(newBoard);
+		for(int i = 0; i < 6; i++)
+			for(int j = 0; j < 12; j++)
+				grid[i][j] = cells[i * 12 + j];
+		
+		for(int i = 0; i < count; i++)
+			objs.add(newBall(0, i));
+		
+		for(int i = 0; i < count; i++)
+		{
+			Ball b = (Ball)objs.get(i);
+			
+			b.reset(colors[i], i);
+			b.setState(states[i]);
+			b.setX(xs[i]);
+			b.setY(ys[i]);
+			b.setTargetY(targets[i]);
+			b.setFallTimer(timers[i]);
+			b.setPartner(linkedBall(partners[i]));
+		}
+		
+		faller = linkedBall(fallerIndex);
+		
+		// neighbors come straight from the grid, so work them out again rather than saving
+		// them (leaving the dirty cells as they were, to be looked at as usual)
+		updateNeighbors(PuyoBoard.VALID, 0);
+		updateNeighbors(PuyoBoard.VALID, 3);
+		stackVersion++; // the seated balls are different ones now
+	}
+	
+	//makes sure a ball index read from a snapshot is -1 or one of its balls
+	private static void checkIndex(int index, int count) throws IOException
+	{
+		if(index < -1 || index >= count)
+			throw new IOException("snapshot refers to ball " + index + " of " + count);
+	}
+	
+	//the ball at the given index, or null if it's -1
+	private Ball linkedBall(int index)
+	{
+		return (index == -1) ? null : (Ball)objs.get(index);
+	}
+	
 	public void moveFallerLeft()
 	{
 		if(faller != null && faller.getPartner() != null && faller.getState() == Ball.INITFALL 
@@ -503,6 +682,11 @@ public class PuyoManager extends GameManager
 			{
 				if(grid[faller.gridX()-1][faller.gridY()] != -1) //someone already there?
 					return;
+				
+				//a partner above or below needs room as well
+				if(faller.getPartner().getY() >= 0 
+					&& grid[faller.getPartner().gridX()-1][faller.getPartner().gridY()] != -1)
+					return;
 			}
 			
 			//Nothing in the way?
@@ -520,8 +704,14 @@ public class PuyoManager extends GameManager
 				return;
 			
 			if(faller.getY()+PuyoPuyo.BALLSIZE >= PuyoPuyo.SCREENHEIGHT 
-				|| faller.getPartner().getX()+PuyoPuyo.BALLSIZE >= PuyoPuyo.SCREENHEIGHT)//at edge?
+				|| faller.getPartner().getY()+PuyoPuyo.BALLSIZE >= PuyoPuyo.SCREENHEIGHT)//at edge?
 				return; // then nevermind
+			
+			//lets also check the grid for ball interferences. Moving into a seated ball
+			//would land one of the pair on top of it
+			if(grid[faller.gridX()][faller.gridY()+1] != -1
+				|| grid[faller.getPartner().gridX()][faller.getPartner().gridY()+1] != -1)
+				return;
 
 			//Otherwise	
 			faller.incY(+32);
@@ -552,6 +742,11 @@ public class PuyoManager extends GameManager
 			{
 				if(grid[faller.gridX()+1][faller.gridY()]!= -1) //someone already there?
 					return;
+				
+				//a partner above or below needs room as well
+				if(faller.getPartner().getY() >= 0 
+					&& grid[faller.getPartner().gridX()+1][faller.getPartner().gridY()] != -1)
+					return;
 			}
 			
 			//Nothing in the way?	
@@ -586,7 +781,7 @@ public class PuyoManager extends GameManager
 		else
 		if(partner.getX() > faller.getX())// is it to the right?
 		{
-			if(grid[faller.gridX()][faller.gridY()+1] != -1) //something there?
+			if(faller.gridY() >= 11 || grid[faller.gridX()][faller.gridY()+1] != -1) //ground or something there?
 				return;
 			
 			partner.setX(faller.getX());
@@ -632,7 +827,7 @@ public class PuyoManager extends GameManager
 		
 		if(partner.getX() < faller.getX())// is it to the left?
 		{
-			if(grid[faller.gridX()][faller.gridY()+1] != -1) //something there?
+			if(faller.gridY() >= 11 || grid[faller.gridX()][faller.gridY()+1] != -1) //ground or something there?
 				return;
 			
 			partner.setX(faller.getX());
@@ -7,17 +7,27 @@
  * buffers.
  */
 
+import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Transparency;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
 
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 
 import com.lpq.game.GameCanvas;
 import com.lpq.game.GameManager;
+import com.lpq.game.GameObj;
+import com.lpq.game.GameRandom;
+import com.lpq.game.Recording;
+import com.lpq.game.ReplaySource;
+import com.lpq.game.SpriteManager;
 
 
 public class PuyoPuyo extends GameCanvas
@@ -34,11 +44,19 @@ public class PuyoPuyo extends GameCanvas
 	public static final int SCREENX =  500;// 32X32 blocks, 6x12 grid
 	public static final int SCREENY =  200;// 32X32 blocks, 6x12 grid
 	
-	public static final int INTERVAL =  60;
+	public static final int INTERVAL =  60; // game ticks per second
 		//------------------------------------
 
 	private JLabel gameLabel; // label to show score and game info
 	
+	private BufferedImage stack; // every seated ball, drawn once into a single image
+	private int stackVersion; // version of the game manager's seated balls it holds
+	private int[] stackTops; // highest row of pixels in each column of the stack holding anything
+	
+	private static String recordTo; // file to record the game to, if any
+	private static Recording replaying; // recording being played back instead of the keyboard, if any
+	private boolean checked; // whether the replay's end state has been checked yet
+	
 	public PuyoPuyo()
 	{
 		// you can call the super constructor filled in with game details here
@@ -47,6 +65,76 @@ public class PuyoPuyo extends GameCanvas
 		//super(SCREENWIDTH,SCREENHEIGHT,SCREENX,SCREENY,"Puyo-Puyo",INGAME); 
 	}
 	
+	// draws the given game offscreen, rather than opening a window and playing it
+	public PuyoPuyo(PuyoManager pMan, SpriteManager sMan)
+	{
+		super(pMan, sMan, SCREENWIDTH, SCREENHEIGHT);
+	}
+	
+	// Seated balls don't go anywhere until a pop, so rather than drawing each one every
+	// frame, they're drawn once into the stack image which is drawn in their place. Only
+	// the few balls still on the move get drawn on their own
+	@Override
+	protected void drawObjs()
+	{
+		PuyoManager pMan = (PuyoManager) gMan;
+		
+		if(stack == null || stackVersion != pMan.getStackVersion())
+			updateStack(pMan);
+		
+		// balls only ever seat on top of one another, so each column of the stack is a
+		// solid strip from its top down to the ground
+		for(int i = 0; i < stackTops.length; i++)
+		{
+			int x = i * BALLSIZE;
+			
+			if(stackTops[i] < SCREENHEIGHT) // anything in this column?
+				g.drawImage(stack, x, stackTops[i], x + BALLSIZE, SCREENHEIGHT, 
+						x, stackTops[i], x + BALLSIZE, SCREENHEIGHT, null);
+		}
+		
+		for(int i = 0; i < pMan.getObjs().size(); i++)
+		{
+			GameObj b = pMan.getObjs().get(i);
+			
+			if(b.getState() != Ball.SEATED)
+				g.drawImage(sMan.getRenderImage(b.getSprite(sMan)), b.getDrawX(alpha), b.getDrawY(alpha), null);
+		}
+	}
+	
+	//redraws the stack image from the balls currently seated
+	private void updateStack(PuyoManager pMan)
+	{
+		if(stack == null)
+		{
+			stack = SpriteManager.createImage(SCREENWIDTH, SCREENHEIGHT, Transparency.BITMASK);
+			stackTops = new int[SCREENWIDTH / BALLSIZE];
+		}
+		
+		Graphics2D sg = stack.createGraphics();
+		sg.setComposite(AlphaComposite.Clear); // wipe it to see-through
+		sg.fillRect(0, 0, SCREENWIDTH, SCREENHEIGHT);
+		sg.setComposite(AlphaComposite.SrcOver);
+		
+		for(int i = 0; i < stackTops.length; i++)
+			stackTops[i] = SCREENHEIGHT;
+		
+		for(int i = 0; i < pMan.getObjs().size(); i++)
+		{
+			GameObj b = pMan.getObjs().get(i);
+			
+			if(b.getState() == Ball.SEATED)
+			{
+				sg.drawImage(sMan.getImage(b.getSprite(sMan)), b.getX(), b.getY(), null);
+				int col = b.getX() / BALLSIZE;
+				stackTops[col] = Math.max(0, Math.min(stackTops[col], b.getY()));
+			}
+		}
+		sg.dispose();
+		
+		stackVersion = pMan.getStackVersion();
+	}
+	
 	@Override
 	public void updateGamePaused()
 	{
@@ -69,8 +157,24 @@ public class PuyoPuyo extends GameCanvas
 		gameLabel.setText("Score: " + pMan.getScore() +
 				"   Chain: " + pMan.getChainLevel());
 		
+		// played a recording all the way through? see if we ended up where it did
+		if(replaying != null && !checked && replaying.isFinished() 
+				&& pMan.getTick() >= replaying.getEndTick())
+		{
+			checked = true;
+			System.out.println(PuyoReplay.check(replaying, pMan));
+		}
+		
 		if(pMan.isGameOver())
-			gameState = GAMEOVER;	
+		{
+			gameState = GAMEOVER;
+			
+			if(pMan.getRecording() != null)
+			{
+				pMan.getRecording().finish(pMan);
+				saveRecording(pMan.getRecording());
+			}
+		}
 	}
 	
 	@Override
@@ -87,6 +191,8 @@ public class PuyoPuyo extends GameCanvas
 		gameLabel = new JLabel("Score: 0    Chain: 0");
 		gameLabel.setFont(new Font("TimesRoman", Font.BOLD,16));
 		hud.add(gameLabel);
+		
+		setDirtyRendering(true); // little moves on screen each frame, so only redraw that
 	}
 	
 	@Override
@@ -98,10 +204,22 @@ public class PuyoPuyo extends GameCanvas
 		screenX = SCREENX;
 		screenY = SCREENY;
 		gameState = INGAME;
+		tickRate = (replaying != null) ? replaying.getTickRate() : INTERVAL;
 	}
 	
+	// Usage: java PuyoPuyo [recording] - recording being a file to record the game to
 	public static void main(String [] args)
 	{
+		if(args.length > 0)
+			recordTo = args[0];
+		
+		new PuyoPuyo();
+	}
+	
+	// plays a recorded game back in a window, in real time
+	public static void replay(Recording r)
+	{
+		replaying = r;
 		new PuyoPuyo();
 	}
 	
@@ -113,6 +231,11 @@ public class PuyoPuyo extends GameCanvas
 		{
 			PuyoManager pMan = (PuyoManager) gMan;
 			
+			if (replaying != null && e.getKeyCode() != KeyEvent.VK_ENTER) 
+			{
+				return; // the recording is doing the playing
+			}
+			
 			if (e.getKeyCode() == KeyEvent.VK_LEFT) 
 			{
 				pMan.leftAlert();
@@ -159,7 +282,38 @@ public class PuyoPuyo extends GameCanvas
 	@Override
 	protected GameManager getGameManagerInstance()
 	{
-		return new PuyoManager();
+		PuyoManager pMan = new PuyoManager();
+		
+		if(replaying != null)
+		{
+			pMan.setRandom(new GameRandom(replaying.getSeed()));
+			setInputSource(new ReplaySource(replaying));
+		}
+		else
+			if(recordTo != null)
+			{
+				final Recording r = new Recording(pMan.getRandom().getSeed(), INTERVAL);
+				pMan.setRecording(r);
+				
+				// closing the window ends everything on the spot, so save what there is then
+				// (without an end state to check, unless the game got to finish)
+				Runtime.getRuntime().addShutdownHook(new Thread() {
+					public void run() {saveRecording(r);}
+				});
+			}
+		
+		return pMan;
+	}
+	
+	private static void saveRecording(Recording r)
+	{
+		try
+		{
+			r.write(recordTo);
+		} catch (IOException e) 
+		{
+			System.err.println("Couldn't save the recording to " + recordTo + ": " + e);
+		}
 	}
 
 	@Override
@@ -0,0 +1,77 @@
+/*
+ * PuyoReplay.java
+ * 
+ * Plays back a game recorded by PuyoPuyo or PuyoHeadless, then checks that it ended with
+ * the same score and board as the original did. By default it runs with no display and
+ * as fast as it can; ask for a window to watch it in real time instead.
+ * Usage: java PuyoReplay recording [windowed]
+ *   windowed - "true" to watch the replay
+ */
+
+import java.io.IOException;
+
+import com.lpq.game.GameRandom;
+import com.lpq.game.HeadlessDriver;
+import com.lpq.game.Recording;
+import com.lpq.game.ReplaySource;
+
+
+public class PuyoReplay
+{
+	public static void main(String [] args) throws IOException
+	{
+		if(args.length < 1)
+		{
+			System.out.println("Usage: java PuyoReplay recording [windowed]");
+			return;
+		}
+		
+		Recording r = Recording.read(args[0]);
+		System.out.println("Seed: " + r.getSeed() + "   Inputs: " + r.size() + 
+				"   Ticks: " + r.getEndTick());
+		
+		if(args.length > 1 && Boolean.parseBoolean(args[1]))
+		{
+			PuyoPuyo.replay(r);
+			return;
+		}
+		
+		PuyoManager pMan = new PuyoManager();
+		pMan.setRandom(new GameRandom(r.getSeed()));
+		
+		HeadlessDriver driver = new HeadlessDriver(pMan, r.getTickRate(), false);
+		driver.setInputSource(new ReplaySource(r));
+		
+		long start = System.nanoTime();
+		long ticks = driver.run(r.getEndTick());
+		long elapsed = System.nanoTime() - start;
+		
+		System.out.println("Ticks: " + ticks + "   Score: " + pMan.getScore() + 
+				"   Game Over: " + pMan.isGameOver());
+		System.out.println("Ticks/sec: " + (long)(ticks / (elapsed / 1e9)));
+		
+		String result = check(r, pMan);
+		System.out.println(result);
+		
+		if(r.isFinished() && !result.startsWith("Match"))
+			System.exit(1);
+	}
+	
+	// compares how a replay ended with how the recorded game did
+	public static String check(Recording r, PuyoManager pMan)
+	{
+		if(!r.isFinished())
+			return "Recording was cut short, so there's no end state to check against";
+		
+		if(pMan.getTick() != r.getEndTick())
+			return "MISMATCH: replay stopped at tick " + pMan.getTick() + ", recording at " + r.getEndTick();
+		
+		if(pMan.getScore() != r.getEndScore())
+			return "MISMATCH: score " + pMan.getScore() + ", recorded " + r.getEndScore();
+		
+		if(pMan.stateHash() != r.getEndHash())
+			return "MISMATCH: board differs from the recording";
+		
+		return "Match: score and board are the same as recorded";
+	}
+}
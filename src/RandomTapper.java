@@ -0,0 +1,42 @@
+/*
+ * RandomTapper.java
+ *
+ * Stands in for a player by tapping a random key every so often, just like a rather
+ * confused player would. Keys are picked with a random of its own, so that a given seed
+ * always taps the same keys, and so that tappers running side by side on different
+ * threads don't share (and fight over) one.
+ */
+
+import com.lpq.game.GameManager;
+import com.lpq.game.GameRandom;
+import com.lpq.game.InputSource;
+
+
+public class RandomTapper implements InputSource
+{
+	public static final int TAP_TICKS = 8; // give each tap a moment to take effect
+	
+	private GameRandom random;
+	
+	public RandomTapper(GameRandom random)
+	{
+		this.random = random;
+	}
+	
+	public void poll(GameManager gMan, long tick)
+	{
+		PuyoManager pMan = (PuyoManager) gMan;
+		
+		if(tick % TAP_TICKS != 0)
+			return;
+		
+		switch(random.nextInt(5))
+		{
+		case 0: pMan.leftAlert();break;
+		case 1: pMan.rightAlert();break;
+		case 2: pMan.downAlert();break;
+		case 3: pMan.zAlert();break;
+		case 4: pMan.xAlert();
+		}
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * ResolveMatchesEvent.java
+ *
+ * Flight Recorder event for each search of the board for links to pop, whether or not
+ * it found any. Off unless a recording turns it on.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+@Name("puyo.ResolveMatches")
+@Label("Resolve Matches")
+@Category({"Liquid Pro Quo", "Puyo-Puyo"})
+@Description("A search of the board for links to pop")
+@Enabled(false)
+@StackTrace(false)
+public class ResolveMatchesEvent extends Event
+{
+	@Label("Groups")
+	@Description("Links of 4 or more found")
+	public int groups;
+	
+	@Label("Popped")
+	@Description("Balls popped")
+	public int popped;
+	
+	@Label("Chain Level")
+	@Description("Step of the chain the pops count towards")
+	public int chainLevel;
+	
+	@Label("Score")
+	public int score;
+}
@@ -0,0 +1,155 @@
+/*DirtyRegions.java
+* Liquid Pro Quo
+*
+* Collects the rectangles of the screen that have changed during a frame, so only they
+* need to be drawn again. Rectangles that overlap or sit close together are merged as
+* they're added, which keeps the list short (each one costs a pass of the draw methods),
+* and once there are too many to be worth it everything is folded into a single box.
+* Everything is kept in plain int arrays so that collecting regions never allocates.
+*/
+
+package com.lpq.game;
+
+public class DirtyRegions
+{
+	// --------------- Constants ----------------
+	public static final int MAX_REGIONS = 8;
+	public static final int MERGE_SLACK = 32 * 32; // pixels we'll redraw needlessly to save a region
+	//-------------------------------------------
+
+	private int[] x1, y1, x2, y2; // corners of each region, x2/y2 exclusive
+	private int count;
+	private int width, height; // screen bounds regions are clipped to
+
+	//------------- ACCESSORS -------------
+	public int size()					{return count;}
+	public int getX(int i)				{return x1[i];}
+	public int getY(int i)				{return y1[i];}
+	public int getWidth(int i)			{return x2[i] - x1[i];}
+	public int getHeight(int i)			{return y2[i] - y1[i];}
+	public boolean isEmpty()			{return count == 0;}
+	//------------------------------------------
+
+	public DirtyRegions(int w, int h)
+	{
+		width = w;
+		height = h;
+		x1 = new int[MAX_REGIONS];
+		y1 = new int[MAX_REGIONS];
+		x2 = new int[MAX_REGIONS];
+		y2 = new int[MAX_REGIONS];
+		count = 0;
+	}
+
+	public void clear()
+	{
+		count = 0;
+	}
+
+	// marks the whole screen
+	public void addAll()
+	{
+		count = 0;
+		add(0, 0, width, height);
+	}
+
+	// adds every region of another set
+	public void add(DirtyRegions other)
+	{
+		for(int i = 0; i < other.count; i++)
+			add(other.x1[i], other.y1[i], other.x2[i] - other.x1[i], other.y2[i] - other.y1[i]);
+	}
+
+	public void add(int x, int y, int w, int h)
+	{
+		// keep to the screen, dropping anything entirely off of it
+		int ax = Math.max(x, 0), ay = Math.max(y, 0);
+		int bx = Math.min(x + w, width), by = Math.min(y + h, height);
+
+		if(ax >= bx || ay >= by)
+			return;
+
+		// fold in any region it's worth merging with, and keep going since the bigger
+		// box may now be worth merging with others too
+		boolean merged = true;
+		while(merged)
+		{
+			merged = false;
+
+			for(int i = 0; i < count; i++)
+			{
+				if(worthMerging(i, ax, ay, bx, by))
+				{
+					ax = Math.min(ax, x1[i]);
+					ay = Math.min(ay, y1[i]);
+					bx = Math.max(bx, x2[i]);
+					by = Math.max(by, y2[i]);
+
+					remove(i);
+					merged = true;
+					break;
+				}
+			}
+		}
+
+		if(count == MAX_REGIONS) // too many already, just cover them all with one
+		{
+			for(int i = 0; i < count; i++)
+			{
+				ax = Math.min(ax, x1[i]);
+				ay = Math.min(ay, y1[i]);
+				bx = Math.max(bx, x2[i]);
+				by = Math.max(by, y2[i]);
+			}
+			count = 0;
+		}
+
+		x1[count] = ax;
+		y1[count] = ay;
+		x2[count] = bx;
+		y2[count] = by;
+		count++;
+	}
+
+	// total pixels covered by all regions
+	public long area()
+	{
+		long total = 0;
+		for(int i = 0; i < count; i++)
+			total += (long)(x2[i] - x1[i]) * (y2[i] - y1[i]);
+
+		return total;
+	}
+
+	// fraction of the screen the regions cover, from 0 to 1 (may exceed 1 slightly
+	// where regions overlap)
+	public double coverage()
+	{
+		return (double)area() / ((long)width * height);
+	}
+
+	// true if the union of region i with the given box wastes few enough pixels
+	private boolean worthMerging(int i, int ax, int ay, int bx, int by)
+	{
+		long union = (long)(Math.max(bx, x2[i]) - Math.min(ax, x1[i]))
+				* (Math.max(by, y2[i]) - Math.min(ay, y1[i]));
+
+		long ix = Math.min(bx, x2[i]) - Math.max(ax, x1[i]);
+		long iy = Math.min(by, y2[i]) - Math.max(ay, y1[i]);
+		long overlap = (ix > 0 && iy > 0) ? ix * iy : 0;
+
+		long covered = (long)(bx - ax) * (by - ay) + (long)(x2[i] - x1[i]) * (y2[i] - y1[i]) - overlap;
+
+		return union - covered <= MERGE_SLACK;
+	}
+
+	// takes region i out, moving the last region into its place
+	private void remove(int i)
+	{
+		count--;
+		x1[i] = x1[count];
+		y1[i] = y1[count];
+		x2[i] = x2[count];
+		y2[i] = y2[count];
+	}
+}
@@ -0,0 +1,63 @@
+/*EntityObj.java
+* Liquid Pro Quo
+*
+* Wraps a single entity of an EntityStore up as a GameObj, so code written against
+* GameObj can read and move it like any other object. Nothing is kept in the wrapper
+* itself; every accessor reads or writes the store's arrays. The store does the updating,
+* so update does nothing here.
+*/
+
+package com.lpq.game;
+
+public class EntityObj extends GameObj
+{
+	private EntityStore store;
+	private int id;
+	
+	//------------- ACCESSORS -------------
+	public EntityStore getStore()		{return store;}
+	public int getId()					{return id;}
+	
+	public int getX()					{return store.getX(id);}
+	public int getY()					{return store.getY(id);}
+	public int getState()				{return store.getState(id);}
+	public int getSprite()				{return store.getSprite(id);}
+	
+	public void setX(int i)				{store.setX(id, i);}
+	public void setY(int i)				{store.setY(id, i);}
+	public void setState(int i)			{store.setState(id, i);}
+	public void setSprite(int i)		{store.setSprite(id, i);}
+	
+	public void incX(int i)				{store.setX(id, store.getX(id) + i);}
+	public void incY(int i)				{store.setY(id, store.getY(id) + i);}
+	//------------------------------------------
+	
+	public EntityObj(EntityStore store, int id)
+	{
+		this.store = store;
+		this.id = id;
+	}
+	
+	// the id lives in the store; an image name is resolved straight into it
+	public int getSprite(SpriteManager sMan)
+	{
+		if(imageName != null && store.getSprite(id) == UNRESOLVED)
+			store.setSprite(id, sMan.getId(imageName));
+		
+		return store.getSprite(id);
+	}
+	
+	public void setImageName(String i)
+	{
+		imageName = i;
+		store.setSprite(id, UNRESOLVED);
+	}
+	
+	// the store keeps previous positions itself
+	public void savePosition()			{}
+	
+	public int getDrawX(float alpha)	{return store.getDrawX(id, alpha);}
+	public int getDrawY(float alpha)	{return store.getDrawY(id, alpha);}
+	
+	public void update(GameManager gMan)	{}
+}
@@ -0,0 +1,272 @@
+/*EntityStore.java
+* Liquid Pro Quo
+*
+* Optional home for large numbers of simple entities. Rather than each entity being its
+* own object with its own fields scattered about the heap, every field is kept in its own
+* array (all x's together, all y's together, and so on), so that updating or drawing
+* every entity is a straight walk down a few arrays.
+*
+* Entities are referred to by an id, which stays the same for as long as the entity lives,
+* though where its data sits in the arrays (its slot) does not: removing an entity moves
+* the last one into its slot so the arrays never have holes. Ids of removed entities are
+* handed out again to new ones.
+*
+* The store is updated by the game manager each tick (see GameManager.setEntities) by
+* moving each entity by its velocity, then running any EntitySystems that were added, and
+* drawn by the canvas along with the game's objects. EntityObj wraps a single entity up
+* as a GameObj for code that wants to treat it like one.
+*/
+
+package com.lpq.game;
+
+import java.awt.Graphics;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class EntityStore
+{
+	// --------------- Constants ----------------
+	public static final int NO_ENTITY = -1;
+	public static final int DEFAULT_CAPACITY = 64;
+	//-------------------------------------------
+
+	// logic that runs over every entity in the store at once, once per tick. Systems
+	// should fetch the arrays they need each time, since they're replaced as the store grows
+	public interface EntitySystem
+	{
+		public void update(EntityStore store, GameManager gMan);
+	}
+
+	// per slot data
+	private int[] x, y; // position
+	private int[] prevX, prevY; // position at the start of the tick, for interpolation
+	private int[] vx, vy; // distance moved each tick
+	private int[] state;
+	private int[] sprite; // sprite manager id
+	private int[] ids; // id of the entity in each slot
+	private int count; // slots in use
+
+	// per id data
+	private int[] slots; // slot of each id, NO_ENTITY if the id is free
+	private int[] freeIds; // ids given back, to be handed out again
+	private int freeCount;
+	private int nextId; // lowest id never handed out
+
+	private ArrayList<EntitySystem> systems;
+
+	//------------- ACCESSORS -------------
+	public int size()					{return count;}
+	public int getCapacity()			{return x.length;}
+
+	// raw arrays, indexed by slot, valid for slots 0 to size()-1
+	public int[] getXArray()			{return x;}
+	public int[] getYArray()			{return y;}
+	public int[] getVxArray()			{return vx;}
+	public int[] getVyArray()			{return vy;}
+	public int[] getStateArray()		{return state;}
+	public int[] getSpriteArray()		{return sprite;}
+	public int[] getIdArray()			{return ids;}
+
+	// single entities, by id
+	public int getX(int id)				{return x[slots[id]];}
+	public int getY(int id)				{return y[slots[id]];}
+	public int getVx(int id)			{return vx[slots[id]];}
+	public int getVy(int id)			{return vy[slots[id]];}
+	public int getState(int id)			{return state[slots[id]];}
+	public int getSprite(int id)		{return sprite[slots[id]];}
+
+	public void setX(int id, int i)		{x[slots[id]] = i;}
+	public void setY(int id, int i)		{y[slots[id]] = i;}
+	public void setVx(int id, int i)	{vx[slots[id]] = i;}
+	public void setVy(int id, int i)	{vy[slots[id]] = i;}
+	public void setState(int id, int i)	{state[slots[id]] = i;}
+	public void setSprite(int id, int i){sprite[slots[id]] = i;}
+	//------------------------------------------
+
+	public EntityStore()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	public EntityStore(int capacity)
+	{
+		capacity = Math.max(capacity, 1);
+
+		x = new int[capacity];
+		y = new int[capacity];
+		prevX = new int[capacity];
+		prevY = new int[capacity];
+		vx = new int[capacity];
+		vy = new int[capacity];
+		state = new int[capacity];
+		sprite = new int[capacity];
+		ids = new int[capacity];
+
+		slots = new int[capacity];
+		freeIds = new int[capacity];
+		Arrays.fill(slots, NO_ENTITY);
+
+		count = 0;
+		freeCount = 0;
+		nextId = 0;
+
+		systems = new ArrayList<EntitySystem>();
+	}
+
+	public void addSystem(EntitySystem s)
+	{
+		systems.add(s);
+	}
+
+	public void removeSystem(EntitySystem s)
+	{
+		systems.remove(s);
+	}
+
+	// true if the id belongs to a live entity
+	public boolean isAlive(int id)
+	{
+		return id >= 0 && id < nextId && slots[id] != NO_ENTITY;
+	}
+
+	// slot the entity currently sits in
+	public int slotOf(int id)
+	{
+		return slots[id];
+	}
+
+	// adds a new entity, returning its id
+	public int create(int ex, int ey, int eState, int eSprite)
+	{
+		if(count == x.length)
+			grow();
+
+		int id = (freeCount > 0) ? freeIds[--freeCount] : nextId++;
+		if(id >= slots.length)
+			growIds();
+
+		int s = count++;
+		x[s] = ex;
+		y[s] = ey;
+		prevX[s] = ex;
+		prevY[s] = ey;
+		vx[s] = 0;
+		vy[s] = 0;
+		state[s] = eState;
+		sprite[s] = eSprite;
+		ids[s] = id;
+		slots[id] = s;
+
+		return id;
+	}
+
+	// removes an entity by moving the last entity into its slot. Ids that aren't alive
+	// (already removed, or never handed out) are ignored
+	public void remove(int id)
+	{
+		if(!isAlive(id))
+			return;
+
+		int s = slots[id];
+		int last = --count;
+
+		if(s != last)
+		{
+			x[s] = x[last];
+			y[s] = y[last];
+			prevX[s] = prevX[last];
+			prevY[s] = prevY[last];
+			vx[s] = vx[last];
+			vy[s] = vy[last];
+			state[s] = state[last];
+			sprite[s] = sprite[last];
+			ids[s] = ids[last];
+			slots[ids[s]] = s; // only the moved entity needs to learn its new slot
+		}
+
+		slots[id] = NO_ENTITY;
+		freeIds[freeCount++] = id;
+	}
+
+	public void clear()
+	{
+		for(int i = 0; i < count; i++)
+		{
+			slots[ids[i]] = NO_ENTITY;
+			freeIds[freeCount++] = ids[i];
+		}
+		count = 0;
+	}
+
+	// remembers every position before the coming tick, see GameManager.savePositions
+	public void savePositions()
+	{
+		System.arraycopy(x, 0, prevX, 0, count);
+		System.arraycopy(y, 0, prevY, 0, count);
+	}
+
+	// one tick of logic: every entity moves by its velocity, then each system runs
+	public void update(GameManager gMan)
+	{
+		for(int i = 0; i < count; i++)
+		{
+			x[i] += vx[i];
+			y[i] += vy[i];
+		}
+
+		for(int i = 0; i < systems.size(); i++)
+		{
+			systems.get(i).update(this, gMan);
+		}
+	}
+
+	// draws every entity, blended alpha of the way from its last position to its current
+	public void draw(Graphics g, SpriteManager sMan, float alpha)
+	{
+		for(int i = 0; i < count; i++)
+		{
+			g.drawImage(sMan.getRenderImage(sprite[i]),
+					prevX[i] + Math.round((x[i] - prevX[i]) * alpha),
+					prevY[i] + Math.round((y[i] - prevY[i]) * alpha), null);
+		}
+	}
+
+	// interpolated position of a single entity
+	public int getDrawX(int id, float alpha)
+	{
+		int s = slots[id];
+		return prevX[s] + Math.round((x[s] - prevX[s]) * alpha);
+	}
+
+	public int getDrawY(int id, float alpha)
+	{
+		int s = slots[id];
+		return prevY[s] + Math.round((y[s] - prevY[s]) * alpha);
+	}
+
+	// doubles the room for slots
+	private void grow()
+	{
+		int size = x.length * 2;
+
+		x = Arrays.copyOf(x, size);
+		y = Arrays.copyOf(y, size);
+		prevX = Arrays.copyOf(prevX, size);
+		prevY = Arrays.copyOf(prevY, size);
+		vx = Arrays.copyOf(vx, size);
+		vy = Arrays.copyOf(vy, size);
+		state = Arrays.copyOf(state, size);
+		sprite = Arrays.copyOf(sprite, size);
+		ids = Arrays.copyOf(ids, size);
+	}
+
+	// doubles the room for ids
+	private void growIds()
+	{
+		int old = slots.length;
+
+		slots = Arrays.copyOf(slots, old * 2);
+		freeIds = Arrays.copyOf(freeIds, old * 2);
+		Arrays.fill(slots, old, old * 2, NO_ENTITY);
+	}
+}
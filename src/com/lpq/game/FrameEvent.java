@@ -0,0 +1,60 @@
+/*FrameEvent.java
+* Liquid Pro Quo
+*
+* Flight Recorder event for a single pass of the game loop, from the start of its ticks
+* to the frame being shown, along with how long each part of it took. Lets frames be lined
+* up against GC pauses and the like in a recording. Off unless a recording turns it on
+* (e.g. -XX:StartFlightRecording with a settings file enabling com.lpq.game.Frame), and
+* close to free while it's off.
+*/
+
+package com.lpq.game;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("com.lpq.game.Frame")
+@Label("Frame")
+@Category({"Liquid Pro Quo", "Engine"})
+@Description("One pass of the game loop: its logic ticks, drawing and the flip to the screen")
+@Enabled(false)
+@StackTrace(false)
+public class FrameEvent extends Event
+{
+	@Label("Frame")
+	public long frame;
+	
+	@Label("Ticks")
+	@Description("Logic ticks run before drawing")
+	public int ticks;
+	
+	@Label("Alpha")
+	@Description("How far between the last tick and the next the frame was drawn at")
+	public float alpha;
+	
+	@Label("Update")
+	@Timespan(Timespan.NANOSECONDS)
+	public long update;
+	
+	@Label("Draw Background")
+	@Timespan(Timespan.NANOSECONDS)
+	public long drawBackground;
+	
+	@Label("Draw Objects")
+	@Timespan(Timespan.NANOSECONDS)
+	public long drawObjs;
+	
+	@Label("Draw Foreground")
+	@Timespan(Timespan.NANOSECONDS)
+	public long drawForeground;
+	
+	@Label("Show")
+	@Timespan(Timespan.NANOSECONDS)
+	public long show;
+}
@@ -0,0 +1,180 @@
+/*FrameStats.java
+* Liquid Pro Quo
+*
+* Keeps a histogram of how long each part of a frame takes (ticks of logic, the three
+* draw passes and the flip to the screen) along with the time between frames and the
+* frame rate, so it can be seen where frame time goes. The canvas records into it as it
+* runs, without allocating, and it can be registered as a platform MBean so the numbers
+* can be read from outside the game with any JMX client.
+*/
+
+package com.lpq.game;
+
+import java.beans.ConstructorProperties;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class FrameStats implements FrameStatsMXBean
+{
+	// --------------- Constants ----------------
+	public static final int UPDATE = 0; // phases
+	public static final int DRAW_BACKGROUND = 1;
+	public static final int DRAW_OBJS = 2;
+	public static final int DRAW_FOREGROUND = 3;
+	public static final int SHOW = 4;
+	public static final int FRAME = 5;
+	public static final int PHASES = 6;
+	
+	public static final long FPS_WINDOW = GameClock.NANOS_PER_SECOND; // time the frame rate is averaged over
+	//-------------------------------------------
+	
+	// percentiles of one histogram, in microseconds, as handed out over JMX
+	public static class Summary
+	{
+		private long count;
+		private double mean, min, max, p50, p90, p99, p999;
+		
+		public long getCount()			{return count;}
+		public double getMean()			{return mean;}
+		public double getMin()			{return min;}
+		public double getMax()			{return max;}
+		public double getP50()			{return p50;}
+		public double getP90()			{return p90;}
+		public double getP99()			{return p99;}
+		public double getP999()			{return p999;}
+		
+		public Summary(Histogram from)
+		{
+			Histogram h = new Histogram(); // a snapshot, so every number comes from the same moment
+			h.copyFrom(from);
+			
+			count = h.getCount();
+			mean = h.getMean() / 1000;
+			min = h.getMin() / 1000.0;
+			max = h.getMax() / 1000.0;
+			p50 = h.getPercentile(50) / 1000.0;
+			p90 = h.getPercentile(90) / 1000.0;
+			p99 = h.getPercentile(99) / 1000.0;
+			p999 = h.getPercentile(99.9) / 1000.0;
+		}
+		
+		// for JMX proxies, which rebuild a Summary from the values its getters handed out
+		@ConstructorProperties({"count", "mean", "min", "max", "p50", "p90", "p99", "p999"})
+		public Summary(long count, double mean, double min, double max, double p50, double p90, 
+				double p99, double p999)
+		{
+			this.count = count;
+			this.mean = mean;
+			this.min = min;
+			this.max = max;
+			this.p50 = p50;
+			this.p90 = p90;
+			this.p99 = p99;
+			this.p999 = p999;
+		}
+	}
+	
+	private Histogram[] phases;
+	private Histogram inputLatency; // kept by the game manager's input queue
+	private volatile long frames;
+	private long lastFrame; // System.nanoTime() the last frame was shown, 0 before the first
+	private long windowStart; // start of the current frame rate window
+	private int windowFrames; // frames shown during it
+	private volatile double fps;
+	private ObjectName name; // what it's registered under, if it is
+	
+	//------------- ACCESSORS -------------
+	public Histogram getHistogram(int phase)		{return phases[phase];}
+	public void setInputLatency(Histogram h)		{inputLatency = h;}
+	//------------------------------------------
+	
+	public FrameStats()
+	{
+		phases = new Histogram[PHASES];
+		for(int i = 0; i < PHASES; i++)
+			phases[i] = new Histogram();
+		
+		inputLatency = new Histogram();
+	}
+	
+	public void record(int phase, long nanos)
+	{
+		phases[phase].record(nanos);
+	}
+	
+	// to be called each time a frame has been shown, now being when it was
+	public void frameShown(long now)
+	{
+		frames++;
+		
+		if(lastFrame != 0)
+			phases[FRAME].record(now - lastFrame);
+		lastFrame = now;
+		
+		if(windowStart == 0)
+			windowStart = now;
+		
+		windowFrames++;
+		if(now - windowStart >= FPS_WINDOW)
+		{
+			fps = windowFrames * (double)GameClock.NANOS_PER_SECOND / (now - windowStart);
+			windowStart = now;
+			windowFrames = 0;
+		}
+	}
+	
+	//---------------- JMX ----------------
+	
+	// registers with the platform MBean server under the given name. Failing to (e.g. a
+	// second game in the same VM under the same name) isn't worth stopping the game over
+	public void register(String title)
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			name = new ObjectName("com.lpq.game:type=FrameStats,name=" + ObjectName.quote(title));
+			server.registerMBean(this, name);
+		} catch (JMException e) 
+		{
+			System.err.println("Frame stats not available over JMX: " + e);
+			name = null;
+		}
+	}
+	
+	public void unregister()
+	{
+		if(name == null)
+			return;
+		
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		} catch (JMException e) 
+		{
+			// already gone, nothing to do
+		}
+		name = null;
+	}
+	
+	public double getFramesPerSecond()		{return fps;}
+	public long getFrameCount()				{return frames;}
+	
+	public Summary getUpdate()				{return new Summary(phases[UPDATE]);}
+	public Summary getDrawBackground()		{return new Summary(phases[DRAW_BACKGROUND]);}
+	public Summary getDrawObjs()			{return new Summary(phases[DRAW_OBJS]);}
+	public Summary getDrawForeground()		{return new Summary(phases[DRAW_FOREGROUND]);}
+	public Summary getShow()				{return new Summary(phases[SHOW]);}
+	public Summary getFrame()				{return new Summary(phases[FRAME]);}
+	public Summary getInputLatency()		{return new Summary(inputLatency);}
+	
+	public void reset()
+	{
+		for(int i = 0; i < PHASES; i++)
+			phases[i].reset();
+		
+		inputLatency.reset();
+	}
+}
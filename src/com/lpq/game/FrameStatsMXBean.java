@@ -0,0 +1,24 @@
+/*FrameStatsMXBean.java
+* Liquid Pro Quo
+*
+* What FrameStats shows over JMX, registered as com.lpq.game:type=FrameStats,name=<title>.
+* Every phase comes back as a summary of its histogram, in microseconds.
+*/
+
+package com.lpq.game;
+
+public interface FrameStatsMXBean
+{
+	public double getFramesPerSecond(); // over the last second or so
+	public long getFrameCount();
+	
+	public FrameStats.Summary getUpdate(); // each tick of logic
+	public FrameStats.Summary getDrawBackground();
+	public FrameStats.Summary getDrawObjs();
+	public FrameStats.Summary getDrawForeground();
+	public FrameStats.Summary getShow(); // strategy.show(), the flip to the screen
+	public FrameStats.Summary getFrame(); // from one frame shown to the next
+	public FrameStats.Summary getInputLatency(); // from a key press to the frame showing it
+	
+	public void reset();
+}
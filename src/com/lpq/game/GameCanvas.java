@@ -12,14 +12,21 @@
 
 package com.lpq.game;
 
+import java.awt.AlphaComposite;
 import java.awt.Canvas;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Image;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.awt.Transparency;
 import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -50,6 +57,36 @@ public abstract class GameCanvas extends Canvas
 	
 	protected boolean isGameOver;
 	
+	protected int tickRate; // logic updates per second
+	protected int frameRate; // frames drawn per second, 0 draws once per tick
+	protected GameClock clock; // fixed-timestep clock that drives the game loop
+	protected float alpha; // how far between the last tick and the next this frame is drawn at
+	protected FrameStats stats; // timings of each part of the frame, null if not kept
+	protected InputSource inputSource; // extra input polled before every tick (e.g. a replay), may be null
+	private long bgNanos, objNanos, fgNanos; // time spent in each draw pass this frame
+	private long showNanos; // time spent showing the last frame
+	private long frames; // passes of the game loop so far
+	
+	public static final int BUFFERS = 2; // buffers in the buffer strategy
+	public static final double FULL_REDRAW_COVERAGE = 0.6; // past this much change, just draw it all
+	
+	protected boolean dirtyRendering; // only redraw the parts of the screen that changed?
+	private DirtyRegions changed; // what changed this frame
+	private DirtyRegions lastChanged; // what changed last frame, may be stale in our back buffer
+	private DirtyRegions repaint; // what actually gets redrawn this frame
+	private List<GameObj> drawnObjs, seenObjs; // objects drawn last frame, and seen this one
+	private long frame; // frames drawn so far
+	private int fullRedraws; // frames left that have to be drawn whole
+	private Image drawnBg, drawnFg; // background and foreground last drawn
+	
+	protected boolean layerCaching; // draw the background and foreground from cached layers?
+	private BufferedImage bgLayer, fgLayer; // currBg/bgObjs and currFg/fgObjs drawn into one image each
+	private int bgLayerVersion, fgLayerVersion; // versions of the game manager's bg/fg they hold
+	private Image bgLayerImage, fgLayerImage; // the currBg/currFg they hold
+	private int bgLayerCount, fgLayerCount; // number of bg/fg objects they hold
+	private int fgX1, fgY1, fgX2, fgY2; // part of the fg layer that holds anything, so the
+							// (see-through, and so costly to draw) rest can be skipped
+	
 	//private PuyoManager pManager; // manage the on-goings of the game
 	protected GameManager gMan;
 	protected SpriteManager sMan; // manages images so that each obj won't have to carry
@@ -106,10 +143,26 @@ public abstract class GameCanvas extends Canvas
 		run();
 	}
 	
+	//Offscreen Constructor
+	//Used to draw a game somewhere other than a window (e.g. into an image for testing or
+	//benchmarking). No frame, buffer strategy or key listener is created and the game loop
+	//is never entered, rather the owner calls render() whenever a frame is wanted.
+	protected GameCanvas(GameManager gm, SpriteManager sm, int w, int h)
+	{
+		screenWidth = w;
+		screenHeight = h;
+		gMan = gm;
+		sMan = sm;
+		isGameOver = false;
+		alpha = 1;
+	}
+	
 	//Begins initializing game
 	private void initGame(boolean setDets)
 	{
 		isGameOver = false;
+		tickRate = GameClock.DEFAULT_TICK_RATE;
+		frameRate = 0;
 		
 		gMan = getGameManagerInstance();
 		sMan = getSpriteManagerInstance();
@@ -120,6 +173,13 @@ public abstract class GameCanvas extends Canvas
 		
 		initScreen(); // initialize the game display
 		addKeyListener(getKeyListenerInstance());
+		
+		clock = new GameClock(tickRate, frameRate);
+		gMan.setTickNanos(clock.getTickNanos());
+		
+		stats = new FrameStats();
+		stats.setInputLatency(gMan.getInput().getLatency());
+		stats.register((screenTitle != null) ? screenTitle : getClass().getName());
 	}
 	
 	//Sets up the screen with the provided details
@@ -150,7 +210,7 @@ public abstract class GameCanvas extends Canvas
 		
 		customizeScreen(); // now that the main screen is set up, additions may be made
 		
-		this.createBufferStrategy(2); // 2 buffers
+		this.createBufferStrategy(BUFFERS);
 		strategy = getBufferStrategy();
 		
 		frame.pack();
@@ -167,31 +227,78 @@ public abstract class GameCanvas extends Canvas
 	}
 	
 	//Main Game Loop
-	//if the game isn't over will loop and excute state-based logic frame by frame
-	//ending each frame with a call to paint
+	//if the game isn't over will loop and excute state-based logic in fixed ticks, the
+	//number of which depends on how much time has actually passed. Each pass of the loop
+	//then ends with a call to paint, and a rest until the next frame is due
 	private void run()
 	{
+		clock.start();
+		
 		while(!isGameOver)
 		{
-			if(gameState == SPLASHSCREEN)
-				updateSplashScreen();
-			if(gameState == STARTSCREEN)
-				updateStartScreen();
-			if(gameState == INGAME)
-				updateInGame();
-			if(gameState == GAMEPAUSED)
-				updateGamePaused();
-			if(gameState == GAMEOVER)
-				updateGameOver();
+			FrameEvent event = new FrameEvent(); // never leaves here, so costs next to nothing
+			event.begin();						// unless a recording wants it
+			
+			clock.advance();
+			
+			int ticks = 0;
+			long updateNanos = 0;
+			while(!isGameOver && clock.consumeTick()) // catch up on any ticks that are due
+			{
+				long start = System.nanoTime();
+				if(inputSource != null)
+					inputSource.poll(gMan, gMan.getTick());
+				
+				gMan.savePositions();
+				update();
+				long took = System.nanoTime() - start;
+				
+				if(stats != null)
+					stats.record(FrameStats.UPDATE, took);
+				ticks++;
+				updateNanos += took;
+			}
 			
+			alpha = clock.getAlpha();
 			paint();
+			frames++;
+			
+			if(event.shouldCommit())
+			{
+				event.frame = frames;
+				event.ticks = ticks;
+				event.alpha = alpha;
+				event.update = updateNanos;
+				event.drawBackground = bgNanos;
+				event.drawObjs = objNanos;
+				event.drawForeground = fgNanos;
+				event.show = showNanos;
+				event.commit();
+			}
+			
+			clock.waitForNextFrame();
 		}
 		
 	}
 	
+	//executes one tick's worth of state-based logic
+	private void update()
+	{
+		if(gameState == SPLASHSCREEN)
+			updateSplashScreen();
+		if(gameState == STARTSCREEN)
+			updateStartScreen();
+		if(gameState == INGAME)
+			updateInGame();
+		if(gameState == GAMEPAUSED)
+			updateGamePaused();
+		if(gameState == GAMEOVER)
+			updateGameOver();
+	}
+	
 	
 	//-------------- ABSTRACT METHODS ----------------
-	// logic that occurs every frame while the In-Game portion of the game is running
+	// logic that occurs every tick while the In-Game portion of the game is running
 	// usually this is a call to the game manager's update method
 	// followed by any extra GUI maintenance, etc.
 	// And concluding with a check of the Game Manager's isGameOver status, changing
@@ -232,24 +339,225 @@ public abstract class GameCanvas extends Canvas
 		screenY = 200;
 		screenTitle = "";
 		gameState = INGAME;
+		tickRate = GameClock.DEFAULT_TICK_RATE;
 		// width and height have been intentionally omitted, since it's important
 		// to set up basic game details here manually, if the full game constructor
 		// was not used.	
 	}
 	
-	//Works with the buffer strategy to draw the game to the screen. Made up of 3 components,
-	// drawBackground, drawObjs , and draw Foreground, which all may be overriden as
-	// necessary
+	// turns drawing only what has changed each frame on or off. Off by default; each
+	// frame is drawn whole
+	public void setDirtyRendering(boolean on)
+	{
+		dirtyRendering = on;
+		
+		if(on && changed == null)
+		{
+			changed = new DirtyRegions(screenWidth, screenHeight);
+			lastChanged = new DirtyRegions(screenWidth, screenHeight);
+			repaint = new DirtyRegions(screenWidth, screenHeight);
+			drawnObjs = new ArrayList<GameObj>();
+			seenObjs = new ArrayList<GameObj>();
+		}
+		
+		fullRedraws = BUFFERS; // whatever's in the buffers now can't be trusted
+	}
+	
+	public boolean isDirtyRendering()		{return dirtyRendering;}
+	
+	// turns caching of the background and foreground on or off. When on, currBg and every
+	// bgObj are drawn into a single image which is then drawn each frame in one go, and
+	// likewise for the foreground. Only worth it since neither gets updated each frame;
+	// the layers are rebuilt whenever the game manager reports a change.
+	public void setLayerCaching(boolean on)
+	{
+		layerCaching = on;
+		bgLayer = null;
+		fgLayer = null;
+	}
+	
+	public boolean isLayerCaching()			{return layerCaching;}
+	public FrameStats getFrameStats()		{return stats;}
+	public InputSource getInputSource()		{return inputSource;}
+	public void setInputSource(InputSource i)	{inputSource = i;}
+	
+	//keeps frame timings in the given stats, or stops keeping them if null
+	public void setFrameStats(FrameStats s)	{stats = s;}
+	
+	//Works with the buffer strategy to draw the game to the screen.
 	private void paint()
 	{
-		g = strategy.getDrawGraphics();
+		Graphics gfx = strategy.getDrawGraphics();
+		
+		if(strategy.contentsRestored()) // buffers were lost and came back blank
+			fullRedraws = BUFFERS;
+		
+		render(gfx);
+		
+		gfx.dispose();
+		
+		long start = System.nanoTime();
+		strategy.show();
+		long shown = System.nanoTime();
+		showNanos = shown - start;
+		
+		if(stats != null)
+		{
+			stats.record(FrameStats.SHOW, showNanos);
+			stats.frameShown(shown);
+		}
+		gMan.getInput().presented(shown);
+		
+		if(strategy.contentsLost()) // the frame never made it, so start over
+			fullRedraws = BUFFERS;
+	}
+	
+	//Draws only the parts of the screen that have changed since they were last drawn
+	//into the buffer we've been handed. That's whatever changed this frame, plus whatever
+	//changed last frame, since with page flipping the back buffer is a frame behind.
+	//Falls back to drawing everything when the buffers were lost, the background or
+	//foreground image was swapped, or so much changed it wouldn't pay off
+	private void renderChanges(Graphics gfx)
+	{
+		frame++;
+		changed.clear();
+		
+		collectChanges(gMan.getBgObjs());
+		collectChanges(gMan.getObjs());
+		collectChanges(gMan.getFgObjs());
+		if(gMan.getPlayer() != null)
+			collectChange(gMan.getPlayer());
+		
+		// anything drawn last frame that wasn't seen this frame has been taken away
+		for(int i = 0; i < drawnObjs.size(); i++)
+		{
+			GameObj o = drawnObjs.get(i);
+			if(o.drawnFrame != frame && o.drawn)
+			{
+				changed.add(o.drawnX, o.drawnY, o.drawnW, o.drawnH);
+				o.drawn = false;
+			}
+		}
 		
+		List<GameObj> temp = drawnObjs; // what was seen this frame is what's drawn now
+		drawnObjs = seenObjs;
+		seenObjs = temp;
+		seenObjs.clear();
+		
+		// entities in a store aren't tracked one by one, so while there are any just
+		// draw the lot
+		if(gMan.getEntities() != null && gMan.getEntities().size() > 0)
+			changed.addAll();
+		
+		if(gMan.getBg() != drawnBg || gMan.getFg() != drawnFg)
+		{
+			drawnBg = gMan.getBg();
+			drawnFg = gMan.getFg();
+			fullRedraws = BUFFERS;
+		}
+		
+		repaint.clear();
+		repaint.add(changed);
+		repaint.add(lastChanged);
+		
+		DirtyRegions t = lastChanged; // this frame's changes are next frame's stale ones
+		lastChanged = changed;
+		changed = t;
+		
+		if(fullRedraws > 0 || repaint.coverage() > FULL_REDRAW_COVERAGE)
+		{
+			if(fullRedraws > 0)
+				fullRedraws--;
+			
+			draw(gfx);
+			return;
+		}
+		
+		for(int i = 0; i < repaint.size(); i++)
+		{
+			gfx.setClip(repaint.getX(i), repaint.getY(i), repaint.getWidth(i), repaint.getHeight(i));
+			draw(gfx);
+		}
+		
+		gfx.setClip(null);
+	}
+	
+	//compares each object with how it was last drawn, marking its old and new spot
+	//as changed if it has moved or changed image
+	private void collectChanges(List<GameObj> list)
+	{
+		for(int i = 0; i < list.size(); i++)
+			collectChange(list.get(i));
+	}
+	
+	private void collectChange(GameObj o)
+	{
+		if(o.drawnFrame == frame) // already seen this one
+			return;
+		
+		o.drawnFrame = frame;
+		seenObjs.add(o);
+		
+		Image img = sMan.getImage(o.getSprite(sMan));
+		int x = o.getDrawX(alpha), y = o.getDrawY(alpha);
+		int w = (img == null) ? 0 : img.getWidth(null);
+		int h = (img == null) ? 0 : img.getHeight(null);
+		
+		if(o.drawn && x == o.drawnX && y == o.drawnY && img == o.drawnImage)
+			return; // nothing new
+		
+		if(o.drawn)
+			changed.add(o.drawnX, o.drawnY, o.drawnW, o.drawnH);
+		changed.add(x, y, w, h);
+		
+		o.drawnX = x;
+		o.drawnY = y;
+		o.drawnW = w;
+		o.drawnH = h;
+		o.drawnImage = img;
+		o.drawn = true;
+	}
+	
+	//Draws a single frame onto the given graphics, either whole or just what has changed
+	//depending on the rendering mode
+	public void render(Graphics gfx)
+	{
+		bgNanos = 0;
+		objNanos = 0;
+		fgNanos = 0;
+		
+		if(dirtyRendering)
+			renderChanges(gfx);
+		else
+			draw(gfx);
+		
+		if(stats != null)
+		{
+			stats.record(FrameStats.DRAW_BACKGROUND, bgNanos);
+			stats.record(FrameStats.DRAW_OBJS, objNanos);
+			stats.record(FrameStats.DRAW_FOREGROUND, fgNanos);
+		}
+	}
+	
+	//Draws everything onto the given graphics (or whatever part of it is within its clip).
+	// Made up of 3 components, drawBackground, drawObjs , and draw Foreground, which all
+	// may be overriden as necessary
+	private void draw(Graphics gfx)
+	{
+		g = gfx;
+		
+		// timed, adding up over every region when only the changes are drawn
+		long t0 = System.nanoTime();
 		drawBackground();
+		long t1 = System.nanoTime();
 		drawObjs();
+		long t2 = System.nanoTime();
 		drawForeground();
+		long t3 = System.nanoTime();
 		
-		g.dispose();
-		strategy.show();
+		bgNanos += t1 - t0;
+		objNanos += t2 - t1;
+		fgNanos += t3 - t2;
 	}
 	
 	//this may be overrode if all that is needed is a different background than the
@@ -257,6 +565,12 @@ public abstract class GameCanvas extends Canvas
 	//overrode this method will end up ignored anyway. 
 	protected void drawBackground()
 	{
+		if(layerCaching)
+		{
+			g.drawImage(getBgLayer(),0,0,null);
+			return;
+		}
+		
 		g.setColor(Color.white);
 		g.fillRect(0,0,screenWidth,screenHeight);
 
@@ -265,36 +579,128 @@ public abstract class GameCanvas extends Canvas
 		
 		for(GameObj o : gMan.getBgObjs())
 		{
-			g.drawImage(sMan.getImage(o.getImageName()),o.getX(),o.getY(),null);
+			g.drawImage(sMan.getRenderImage(o.getSprite(sMan)),o.getDrawX(alpha),o.getDrawY(alpha),null);
 		}
 	}
 	
 	//draws foreground and fgObjs, may be overridden if necessary 
 	protected void drawForeground()
 	{
+		if(layerCaching)
+		{
+			BufferedImage layer = getFgLayer();
+			
+			if(fgX1 < fgX2 && fgY1 < fgY2) // anything in it?
+				g.drawImage(layer,fgX1,fgY1,fgX2,fgY2,fgX1,fgY1,fgX2,fgY2,null);
+			return;
+		}
+		
 		if(gMan.getFg() != null)
 			g.drawImage(gMan.getFg(),0,0,null);
 		
 		for(GameObj o : gMan.getFgObjs())
 		{
-			g.drawImage(sMan.getImage(o.getImageName()),o.getX(),o.getY(),null);
+			g.drawImage(sMan.getRenderImage(o.getSprite(sMan)),o.getDrawX(alpha),o.getDrawY(alpha),null);
 		}
 	}
 	
+	//returns the cached background layer, rebuilding it first if it's out of date
+	private BufferedImage getBgLayer()
+	{
+		if(bgLayer != null && bgLayerVersion == gMan.getBgVersion() && bgLayerImage == gMan.getBg()
+				&& bgLayerCount == gMan.getBgObjs().size())
+			return bgLayer;
+		
+		if(bgLayer == null)
+			bgLayer = SpriteManager.createImage(screenWidth, screenHeight, Transparency.OPAQUE);
+		
+		Graphics lg = bgLayer.getGraphics();
+		lg.setColor(Color.white);
+		lg.fillRect(0,0,screenWidth,screenHeight);
+		
+		if(gMan.getBg() != null)
+			lg.drawImage(gMan.getBg(),0,0,null);
+		
+		for(GameObj o : gMan.getBgObjs())
+		{
+			lg.drawImage(sMan.getImage(o.getSprite(sMan)),o.getX(),o.getY(),null);
+		}
+		lg.dispose();
+		
+		bgLayerVersion = gMan.getBgVersion();
+		bgLayerImage = gMan.getBg();
+		bgLayerCount = gMan.getBgObjs().size();
+		return bgLayer;
+	}
+	
+	//returns the cached foreground layer, rebuilding it first if it's out of date
+	private BufferedImage getFgLayer()
+	{
+		if(fgLayer != null && fgLayerVersion == gMan.getFgVersion() && fgLayerImage == gMan.getFg()
+				&& fgLayerCount == gMan.getFgObjs().size())
+			return fgLayer;
+		
+		if(fgLayer == null)
+			fgLayer = SpriteManager.createImage(screenWidth, screenHeight, Transparency.TRANSLUCENT);
+		
+		Graphics2D lg = fgLayer.createGraphics();
+		lg.setComposite(AlphaComposite.Clear); // start from fully see-through
+		lg.fillRect(0,0,screenWidth,screenHeight);
+		lg.setComposite(AlphaComposite.SrcOver);
+		
+		fgX1 = screenWidth;
+		fgY1 = screenHeight;
+		fgX2 = 0;
+		fgY2 = 0;
+		
+		if(gMan.getFg() != null)
+		{
+			lg.drawImage(gMan.getFg(),0,0,null);
+			growFgBounds(0,0,gMan.getFg().getWidth(),gMan.getFg().getHeight());
+		}
+		
+		for(GameObj o : gMan.getFgObjs())
+		{
+			BufferedImage img = sMan.getImage(o.getSprite(sMan));
+			lg.drawImage(img,o.getX(),o.getY(),null);
+			
+			if(img != null)
+				growFgBounds(o.getX(),o.getY(),img.getWidth(),img.getHeight());
+		}
+		lg.dispose();
+		
+		fgLayerVersion = gMan.getFgVersion();
+		fgLayerImage = gMan.getFg();
+		fgLayerCount = gMan.getFgObjs().size();
+		return fgLayer;
+	}
+	
+	//widens the foreground's bounds to hold the given box, keeping to the screen
+	private void growFgBounds(int x, int y, int w, int h)
+	{
+		fgX1 = Math.max(0, Math.min(fgX1, x));
+		fgY1 = Math.max(0, Math.min(fgY1, y));
+		fgX2 = Math.min(screenWidth, Math.max(fgX2, x + w));
+		fgY2 = Math.min(screenHeight, Math.max(fgY2, y + h));
+	}
+	
 	// draws player and game objects to the screen
 	protected void drawObjs()
 	{
 		if(gMan.getPlayer() != null)
 		{
 			GameObj p = gMan.getPlayer();
-			g.drawImage(sMan.getImage(p.getImageName()), p.getX(), p.getY(), null);
+			g.drawImage(sMan.getRenderImage(p.getSprite(sMan)), p.getDrawX(alpha), p.getDrawY(alpha), null);
 		}
 		
 		for(int i = 0; i < gMan.getObjs().size(); i++)
 		{
 			GameObj temp = gMan.getObjs().get(i);
-			g.drawImage(sMan.getImage(temp.getImageName()),temp.getX(),temp.getY(),null);
+			g.drawImage(sMan.getRenderImage(temp.getSprite(sMan)),temp.getDrawX(alpha),temp.getDrawY(alpha),null);
 		}
+		
+		if(gMan.getEntities() != null)
+			gMan.getEntities().draw(g, sMan, alpha);
 	}
 	
 	// Add additional details to the screen such as text, panels, etc.
@@ -0,0 +1,142 @@
+/*GameClock.java
+* Liquid Pro Quo
+*
+* Fixed-timestep clock used to drive the game loop. Wall time is collected into an
+* accumulator which is then spent in fixed sized ticks, so game logic always advances by
+* the same amount no matter how fast the machine is. Whatever is left in the accumulator
+* after the ticks have been taken is exposed as an interpolation factor for rendering.
+* The clock also paces the loop by parking the thread until the next frame is due,
+* rather than spinning a core at 100%.
+*/
+
+package com.lpq.game;
+
+import java.util.concurrent.locks.LockSupport;
+
+public class GameClock
+{
+	// --------------- Constants ----------------
+	public static final long NANOS_PER_SECOND = 1000000000L;
+	public static final int DEFAULT_TICK_RATE = 60; // ticks per second
+	public static final long MAX_FRAME_NANOS = 250000000L; // most wall time a single frame may
+												// feed the accumulator; avoids a spiral of death
+	public static final long SPIN_NANOS = 200000L; // park granularity is coarse, so the last
+												// little bit before a deadline is spun out instead
+	//-------------------------------------------
+
+	private long tickNanos; // simulated time that passes each tick
+	private long frameNanos; // minimum wall time between rendered frames
+
+	private long accumulator; // wall time not yet spent on ticks
+	private long lastTime; // time of the last advance
+	private long nextFrame; // deadline of the next frame
+
+	private long simTime; // total simulated time
+	private long ticks; // total ticks taken
+
+	//------------- ACCESSORS -------------
+	public long getTickNanos()			{return tickNanos;}
+	public long getFrameNanos()			{return frameNanos;}
+	public long getSimTime()			{return simTime;}
+	public long getTicks()				{return ticks;}
+	public int getTickRate()			{return (int)(NANOS_PER_SECOND / tickNanos);}
+	//------------------------------------------
+
+	public GameClock()
+	{
+		this(DEFAULT_TICK_RATE, 0);
+	}
+
+	// a frame rate of 0 renders once per tick
+	public GameClock(int tickRate, int frameRate)
+	{
+		setTickRate(tickRate);
+		setFrameRate(frameRate);
+	}
+
+	public void setTickRate(int tickRate)
+	{
+		if(tickRate <= 0)
+			throw new IllegalArgumentException("Tick rate must be positive: " + tickRate);
+
+		tickNanos = NANOS_PER_SECOND / tickRate;
+	}
+
+	// frames may be rendered more often than ticks are taken, the extra frames are
+	// interpolated. 0 ties the frame rate to the tick rate
+	public void setFrameRate(int frameRate)
+	{
+		if(frameRate < 0)
+			throw new IllegalArgumentException("Frame rate must not be negative: " + frameRate);
+
+		frameNanos = (frameRate == 0) ? 0 : NANOS_PER_SECOND / frameRate;
+	}
+
+	// resets the clock, should be called right before the loop is entered
+	public void start()
+	{
+		accumulator = 0;
+		simTime = 0;
+		ticks = 0;
+		lastTime = System.nanoTime();
+		nextFrame = lastTime;
+	}
+
+	// feeds the wall time passed since the last call into the accumulator
+	public void advance()
+	{
+		long now = System.nanoTime();
+		long elapsed = now - lastTime;
+		lastTime = now;
+
+		if(elapsed > MAX_FRAME_NANOS) // stalled (e.g. dragging the window)? don't try to catch up on all of it
+			elapsed = MAX_FRAME_NANOS;
+
+		accumulator += elapsed;
+	}
+
+	// takes a single tick out of the accumulator if one is due, returning true if it did
+	public boolean consumeTick()
+	{
+		if(accumulator < tickNanos)
+			return false;
+
+		accumulator -= tickNanos;
+		simTime += tickNanos;
+		ticks++;
+		return true;
+	}
+
+	// how far between the last tick and the next one we currently are, from 0 to 1
+	public float getAlpha()
+	{
+		return (float)accumulator / tickNanos;
+	}
+
+	// parks the calling thread until the next frame is due. If we've fallen behind the
+	// deadline is simply moved up to now, there's no use in rushing frames out
+	public void waitForNextFrame()
+	{
+		long interval = (frameNanos == 0) ? tickNanos : frameNanos;
+
+		nextFrame += interval;
+		long now = System.nanoTime();
+
+		if(nextFrame - now <= 0) // running behind?
+		{
+			nextFrame = now;
+			return;
+		}
+
+		long remaining;
+		while((remaining = nextFrame - System.nanoTime()) > SPIN_NANOS)
+		{
+			LockSupport.parkNanos(remaining - SPIN_NANOS);
+		}
+
+		while(nextFrame - System.nanoTime() > 0)
+		{
+			Thread.yield(); // spin out the last sliver
+		}
+	}
+}
@@ -12,10 +12,24 @@
 package com.lpq.game;
 
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public abstract class GameManager 
 {
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 1000; // fewer objs than this aren't worth splitting up
+	public static final int MIN_CHUNK = 128; // fewest objs handed to a single task
+	
+	public static final int SNAPSHOT_MAGIC = 0x4C505153; // "LPQS"
+	public static final int SNAPSHOT_VERSION = 1;
+	
 	protected ArrayList<GameObj> objs; // list of main objects in the game
 	protected ArrayList<GameObj> bgObjs; // list of background objs; note these objs do not get to call their update methods
 	protected ArrayList<GameObj> fgObjs; // list of foreground objs; note these objs do not get to call their update methodse
@@ -23,6 +37,19 @@ public abstract class GameManager
 	protected GameObj player; // seen as "key" object to a game
 	protected BufferedImage currBg;
 	protected BufferedImage currFg;
+	protected EntityStore entities; // optional array-backed entities, null when unused
+	protected SpatialHash spatial; // optional broadphase kept in step with objs, null when unused
+	protected long tickNanos; // simulated time that passes each update
+	protected int bgVersion, fgVersion; // bumped whenever the background/foreground changes,
+								// letting the canvas know its cached copies are out of date
+	protected InputQueue input; // events from the key listener (or any other one thread)
+	protected GameRandom random; // where all of the game's chance should come from
+	protected long tick; // ticks run so far; an update should bump it before anything else
+	protected Recording recording; // notes every input handled, null when not recording
+	protected boolean parallelUpdate; // update objs in phases, spread over a ForkJoinPool
+	protected int parallelThreshold;
+	protected ForkJoinPool pool;
+	private InputQueue.Handler inputHandler; // passes drained events on to handleInput
 	
 	public ArrayList<GameObj> getObjs()		{return objs;}
 	public ArrayList<GameObj> getBgObjs()	{return bgObjs;}
@@ -31,6 +58,31 @@ public abstract class GameManager
 	public BufferedImage getBg()			{return currBg;}
 	public BufferedImage getFg()			{return currFg;}
 	public boolean isGameOver()				{return isGameOver;}
+	public EntityStore getEntities()		{return entities;}
+	public InputQueue getInput()			{return input;}
+	public GameRandom getRandom()			{return random;}
+	public long getTick()					{return tick;}
+	public Recording getRecording()			{return recording;}
+	public SpatialHash getSpatial()			{return spatial;}
+	public long getTickNanos()				{return tickNanos;}
+	public int getBgVersion()				{return bgVersion;}
+	public int getFgVersion()				{return fgVersion;}
+	public boolean isParallelUpdate()		{return parallelUpdate;}
+	public int getParallelThreshold()		{return parallelThreshold;}
+	
+	public void setTickNanos(long i)		{tickNanos = i;}
+	public void setEntities(EntityStore i)	{entities = i;}
+	public void setSpatial(SpatialHash i)	{spatial = i;}
+	public void setRandom(GameRandom i)		{random = i;}
+	public void setRecording(Recording i)	{recording = i;}
+	public void setParallelThreshold(int i)	{parallelThreshold = i;}
+	public void setPool(ForkJoinPool i)		{pool = i;}
+	public void setBg(BufferedImage i)		{currBg = i; bgVersion++;}
+	public void setFg(BufferedImage i)		{currFg = i; fgVersion++;}
+	
+	// to be called after changing the background or foreground (or their objects) by hand
+	public void invalidateBg()				{bgVersion++;}
+	public void invalidateFg()				{fgVersion++;}
 	
 	// update function by default updates all game objects, then the player, and finally checks the game to
 	// see if there are any changes to the game over condition
@@ -41,9 +93,41 @@ public abstract class GameManager
 		bgObjs = new ArrayList<GameObj>();
 		fgObjs = new ArrayList<GameObj>();
 		player = null;
+		entities = null;
+		spatial = null;
 		currBg = null;
 		currFg = null;
 		isGameOver = false;
+		tickNanos = GameClock.NANOS_PER_SECOND / GameClock.DEFAULT_TICK_RATE;
+		input = new InputQueue();
+		inputHandler = new InputQueue.Handler() {
+			public void input(int code, long stamp)
+			{
+				if(recording != null)
+					recording.input(tick, code);
+				
+				handleInput(code, stamp);
+			}
+		};
+		random = new GameRandom();
+		tick = 0;
+		recording = null;
+		parallelUpdate = false;
+		parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+		pool = null;
+	}
+	
+	// Turns on phased updates of the main objects. Each tick every obj's readPhase runs, then
+	// every obj's writePhase (see GameObj), and once there are at least parallelThreshold
+	// objs each phase is split into chunks run across the pool (the common pool unless one
+	// was set). Only suitable when every obj keeps to the read/write contract, in which case
+	// the results don't depend on how the work was split up
+	public void setParallelUpdate(boolean b)
+	{
+		parallelUpdate = b;
+		
+		if(b && pool == null)
+			pool = ForkJoinPool.commonPool();
 	}
 	
 	// update function by default updates all game objects, then the player, and finally checks
@@ -51,21 +135,276 @@ public abstract class GameManager
 	// may be suitable for some games, but likely will need to be overridden to allow for more complexity
 	public void update()
 	{
+		tick++;
+		drainInput();
+		
 		//NOTE: by default, the background and foreground objects do NOT get calls to their update methods
 		// since they are considered scenery. This will imply no movement/animation, etc
-		for(GameObj obj : objs)
-		{
-			obj.update(this);
-		}
+		updateObjs();
 		
 		if(player != null)
 		{
 			player.update(this);
 		}
 		
+		if(entities != null)
+		{
+			entities.update(this);
+		}
+		
+		// refile whatever moved, so collision queries see where everything is now
+		if(spatial != null)
+		{
+			spatial.sync(objs);
+		}
+		
 		isGameOver = checkGameOver();
 	}
 	
+	// takes every input event queued since the last tick, in order, to handleInput
+	protected void drainInput()
+	{
+		input.drain(inputHandler);
+	}
+	
+	// acts on a single input event, stamp being the System.nanoTime() it was queued at.
+	// Does nothing by default; games that queue input override it
+	protected void handleInput(int code, long stamp)
+	{
+	}
+	
+	// updates every main object, in phases if parallel updates are on
+	protected void updateObjs()
+	{
+		if(!parallelUpdate)
+		{
+			for(GameObj obj : objs)
+			{
+				obj.update(this);
+			}
+			return;
+		}
+		
+		if(objs.size() < parallelThreshold) // too few to be worth the overhead
+		{
+			for(int i = 0; i < objs.size(); i++)
+				objs.get(i).readPhase(this);
+			
+			for(int i = 0; i < objs.size(); i++)
+				objs.get(i).writePhase(this);
+			return;
+		}
+		
+		// aim for a few chunks per thread so a slow chunk doesn't hold everything up
+		int chunk = Math.max(MIN_CHUNK, objs.size() / (pool.getParallelism() * 4));
+		
+		// every read has to finish before any write starts
+		pool.invoke(new PhaseTask(true, 0, objs.size(), chunk));
+		pool.invoke(new PhaseTask(false, 0, objs.size(), chunk));
+	}
+	
+	// runs one phase over a range of objs, halving it until it's down to a chunk
+	private class PhaseTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private boolean read;
+		private int from, to, chunk;
+		
+		public PhaseTask(boolean read, int from, int to, int chunk)
+		{
+			this.read = read;
+			this.from = from;
+			this.to = to;
+			this.chunk = chunk;
+		}
+		
+		protected void compute()
+		{
+			if(to - from > chunk)
+			{
+				int mid = (from + to) >>> 1;
+				invokeAll(new PhaseTask(read, from, mid, chunk), new PhaseTask(read, mid, to, chunk));
+				return;
+			}
+			
+			for(int i = from; i < to; i++)
+			{
+				if(read)
+					objs.get(i).readPhase(GameManager.this);
+				else
+					objs.get(i).writePhase(GameManager.this);
+			}
+		}
+	}
+	
+	// the player's score, for games that keep one
+	public int getScore()
+	{
+		return 0;
+	}
+	
+	// a number summing up the state of the game, for checking two games ended up the same
+	// (e.g. a replay and the game it was recorded from). By default it covers where every
+	// main object is and what state it's in; games should fold in anything else that matters
+	public long stateHash()
+	{
+		long h = tick;
+		for(int i = 0; i < objs.size(); i++)
+		{
+			GameObj o = objs.get(i);
+			h = h * 31 + o.getX();
+			h = h * 31 + o.getY();
+			h = h * 31 + o.getState();
+		}
+		
+		return h;
+	}
+	
+	//---------------- SNAPSHOTS ----------------
+	// A snapshot holds everything needed to carry on a game from where it was: a header
+	// with the engine's own state (tick, random numbers, game over) followed by whatever
+	// the game itself writes in writeGameState. Snapshots should be taken between ticks.
+	// Settings (tick length, rendering, recording and so on) aren't part of it, nor is
+	// any input still waiting in the queue.
+	
+	// writes a snapshot into the buffer at its position, throwing BufferOverflowException
+	// if it doesn't fit
+	public void writeState(ByteBuffer buf)
+	{
+		buf.putInt(SNAPSHOT_MAGIC);
+		buf.put((byte)SNAPSHOT_VERSION);
+		buf.putLong(tick);
+		buf.putLong(random.getSeed());
+		buf.putLong(random.getState());
+		buf.put((byte)(isGameOver ? 1 : 0));
+		
+		writeGameState(buf);
+	}
+	
+	// brings this game to the state in the snapshot at the buffer's position. If the
+	// snapshot turns out to be bad the game is left just as it was
+	public void readState(ByteBuffer buf) throws IOException
+	{
+		try
+		{
+			if(buf.getInt() != SNAPSHOT_MAGIC)
+				throw new IOException("not a snapshot");
+			
+			int version = buf.get();
+			if(version != SNAPSHOT_VERSION)
+				throw new IOException("snapshot version " + version + ", expected " + SNAPSHOT_VERSION);
+			
+			long newTick = buf.getLong();
+			long seed = buf.getLong();
+			long state = buf.getLong();
+			boolean over = buf.get() != 0;
+			
+			// the game's part goes first, as it's the part that can still turn out bad
+			readGameState(buf);
+			
+			tick = newTick;
+			random.setSeed(seed);
+			random.setState(state);
+			isGameOver = over;
+			input.clear();
+		} catch (BufferUnderflowException e) 
+		{
+			throw new IOException("snapshot cut short");
+		}
+	}
+	
+	// the game's part of a snapshot; nothing by default. Games should lead with a version
+	// of their own so old snapshots can be recognized
+	protected void writeGameState(ByteBuffer buf)
+	{
+	}
+	
+	// should read and check the whole of its part before changing anything, throwing
+	// IOException (or BufferUnderflowException) with the game untouched if it's bad
+	protected void readGameState(ByteBuffer buf) throws IOException
+	{
+	}
+	
+	// a snapshot in a buffer of its own, ready to be read from
+	public ByteBuffer snapshot()
+	{
+		int size = 4096;
+		
+		while(true)
+		{
+			ByteBuffer buf = ByteBuffer.allocate(size);
+			try
+			{
+				writeState(buf);
+				buf.flip();
+				return buf;
+			} catch (BufferOverflowException e) 
+			{
+				size *= 2; // didn't fit, try again with more room
+			}
+		}
+	}
+	
+	// restores from a buffer made by snapshot, leaving the buffer as it was
+	public void restore(ByteBuffer snapshot) throws IOException
+	{
+		readState(snapshot.duplicate());
+	}
+	
+	public void saveState(String path) throws IOException
+	{
+		ByteBuffer buf = snapshot();
+		FileChannel ch = new RandomAccessFile(path, "rw").getChannel();
+		
+		try
+		{
+			ch.truncate(0);
+			while(buf.hasRemaining())
+				ch.write(buf);
+		} finally
+		{
+			ch.close();
+		}
+	}
+	
+	public void loadState(String path) throws IOException
+	{
+		FileChannel ch = new RandomAccessFile(path, "r").getChannel();
+		
+		try
+		{
+			ByteBuffer buf = ByteBuffer.allocate((int)ch.size());
+			while(buf.hasRemaining() && ch.read(buf) >= 0);
+			buf.flip();
+			
+			readState(buf);
+		} finally
+		{
+			ch.close();
+		}
+	}
+	
+	// remembers where every object was before the coming tick, so the canvas can interpolate
+	// between that and wherever they end up
+	public void savePositions()
+	{
+		for(int i = 0; i < objs.size(); i++)
+			objs.get(i).savePosition();
+		
+		for(int i = 0; i < bgObjs.size(); i++)
+			bgObjs.get(i).savePosition();
+		
+		for(int i = 0; i < fgObjs.size(); i++)
+			fgObjs.get(i).savePosition();
+		
+		if(player != null)
+			player.savePosition();
+		
+		if(entities != null)
+			entities.savePositions();
+	}
+	
 	// convenience method to pull an obj from the main list at index i
 	public GameObj get(int i)
 	{
@@ -80,11 +419,13 @@ public abstract class GameManager
 	public void addFgObj(GameObj o)
 	{
 		fgObjs.add(o);
+		fgVersion++;
 	}
 	
 	public void addBgObj(GameObj o)
 	{
 		bgObjs.add(o);
+		bgVersion++;
 	}
 	
 	// checks the status of the game and sets isGameOver appropriately
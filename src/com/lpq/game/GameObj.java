@@ -13,25 +13,100 @@ package com.lpq.game;
 
 public abstract class GameObj 
 {
+	public static final int UNRESOLVED = -2; // sprite id not yet looked up from the image name
+	
 	protected int x, y;
+	protected int width, height; // size of the object's bounds, used for collisions
+	protected int prevX, prevY; // position as of the start of the current tick, for interpolation
+	protected boolean positioned; // false until a previous position has been recorded
 	protected int state;
 	protected String imageName;
+	protected int sprite; // sprite manager id of the image, resolved from imageName on first use
+	
+	// where and as what this object was last drawn; kept by the canvas when it is only
+	// redrawing what has changed
+	int drawnX, drawnY, drawnW, drawnH;
+	Object drawnImage;
+	boolean drawn;
+	long drawnFrame; // frame the object was last seen in
+	
+	// spatial hash the object is filed in, and its slot there
+	SpatialHash hash;
+	int hashSlot;
 	
 	//------------- ACCESSORS -------------
 	public int getX()					{return x;}
 	public int getY()					{return y;}
+	public int getWidth()				{return width;}
+	public int getHeight()				{return height;}
 	public int getState()				{return state;}
 	public String getImageName()		{return imageName;}
+	public int getSprite()				{return sprite;} // may still be UNRESOLVED
 	
 	public void setX(int i)				{x = i;}
 	public void setY(int i)				{y = i;}
-	public void setImageName(String i)	{imageName = i;}
+	public void setWidth(int i)			{width = i;}
+	public void setHeight(int i)		{height = i;}
+	public void setImageName(String i)	{imageName = i; sprite = UNRESOLVED;}
+	public void setSprite(int i)		{sprite = i;}
 	public void setState(int i)			{state = i;}
 	
 	public void incX(int i)				{x += i;}
 	public void incY(int i)				{y += i;}
 	//------------------------------------------
 	
+	public GameObj()
+	{
+		sprite = UNRESOLVED;
+		hashSlot = -1;
+	}
+	
+	// id of this object's image in the given sprite manager. The image name is only looked
+	// up the first time (or after it changes through setImageName), after which the id is
+	// used as is
+	public int getSprite(SpriteManager sMan)
+	{
+		if(sprite == UNRESOLVED)
+			sprite = sMan.getId(imageName);
+		
+		return sprite;
+	}
+	
+	// records the current position as the previous one. Called by the game manager
+	// before each tick so that rendering can blend between the two
+	public void savePosition()
+	{
+		prevX = x;
+		prevY = y;
+		positioned = true;
+	}
+	
+	// position to draw at, alpha being how far we are between the last tick and the next
+	public int getDrawX(float alpha)
+	{
+		if(!positioned) // nothing to blend from yet
+			return x;
+		
+		return prevX + Math.round((x - prevX) * alpha);
+	}
+	
+	public int getDrawY(float alpha)
+	{
+		if(!positioned)
+			return y;
+		
+		return prevY + Math.round((y - prevY) * alpha);
+	}
+	
 	// update is called each frame by game manager 
 	public abstract void update(GameManager gMan);
+	
+	// When the game manager updates in phases (see GameManager.setParallelUpdate) update is
+	// replaced by these two. In readPhase an object may look at anything, but only work out
+	// its next state into its own private fields; in writePhase it applies that state to
+	// itself, touching nothing else. Objects in the same phase may run on different threads.
+	// By default there's nothing to read and the write is a plain update, which is only
+	// safe for objects whose update doesn't look at other objects
+	public void readPhase(GameManager gMan)		{}
+	public void writePhase(GameManager gMan)	{update(gMan);}
 }
@@ -0,0 +1,73 @@
+/*GameRandom.java
+* Liquid Pro Quo
+*
+* Random numbers for game logic. Everything comes from a single seed, so a game given the
+* same seed (and the same input, see Recording) plays out exactly the same every time.
+* The whole state is one long (it's a SplitMix64 generator), which makes it trivial to save
+* and restore along with the rest of a game. Not meant for anything needing real secrecy.
+*/
+
+package com.lpq.game;
+
+public class GameRandom
+{
+	private static final long GOLDEN = 0x9E3779B97F4A7C15L; // step between states
+	
+	private long seed; // what it started from
+	private long state;
+	
+	//------------- ACCESSORS -------------
+	public long getSeed()				{return seed;}
+	public long getState()				{return state;}
+	public void setState(long i)		{state = i;}
+	//------------------------------------------
+	
+	// seeded from the clock, for when nobody cares which game they get
+	public GameRandom()
+	{
+		this(System.nanoTime() ^ 0x5DEECE66DL);
+	}
+	
+	public GameRandom(long seed)
+	{
+		setSeed(seed);
+	}
+	
+	// starts over from the given seed
+	public void setSeed(long s)
+	{
+		seed = s;
+		state = s;
+	}
+	
+	public long nextLong()
+	{
+		long z = (state += GOLDEN);
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+	
+	// 0 (inclusive) to bound (exclusive), evenly spread
+	public int nextInt(int bound)
+	{
+		if(bound <= 0)
+			throw new IllegalArgumentException("bound must be positive");
+		
+		// take from the top 31 bits, skipping the few values that would favour low results
+		long limit = (1L << 31) - ((1L << 31) % bound);
+		long r;
+		do
+		{
+			r = nextLong() >>> 33;
+		} while(r >= limit);
+		
+		return (int)(r % bound);
+	}
+	
+	// 0 (inclusive) to 1 (exclusive)
+	public double nextDouble()
+	{
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+}
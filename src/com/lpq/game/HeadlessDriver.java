@@ -0,0 +1,92 @@
+/*HeadlessDriver.java
+* Liquid Pro Quo
+*
+* Runs a game manager without a canvas, frame or any other piece of AWT. Each tick polls
+* the input source (standing in for the key adapter) and then updates the game manager,
+* until the game is over or a tick limit is hit. Ticks can either be paced in real time
+* at the tick rate, or run back to back as fast as the machine allows, which is handy for
+* simulations, soak tests and benchmarks. Either way the game sees the same amount of
+* game time pass per tick, so a run plays out the same at any speed.
+*/
+
+package com.lpq.game;
+
+public class HeadlessDriver 
+{
+	private GameManager gMan;
+	private InputSource input; // may be null for no input at all
+	private GameClock clock;
+	private boolean paced; // true to hold ticks to the tick rate, false to run flat out
+	private long ticks; // ticks run so far
+	
+	//------------- ACCESSORS -------------
+	public GameManager getManager()			{return gMan;}
+	public InputSource getInputSource()		{return input;}
+	public long getTicks()					{return ticks;}
+	public boolean isPaced()				{return paced;}
+	
+	public void setInputSource(InputSource i)	{input = i;}
+	public void setPaced(boolean i)				{paced = i;}
+	//------------------------------------------
+	
+	// unpaced driver at the default tick rate
+	public HeadlessDriver(GameManager gm)
+	{
+		this(gm, GameClock.DEFAULT_TICK_RATE, false);
+	}
+	
+	public HeadlessDriver(GameManager gm, int tickRate, boolean paced)
+	{
+		gMan = gm;
+		this.paced = paced;
+		input = null;
+		ticks = 0;
+		
+		clock = new GameClock(tickRate, 0);
+		gMan.setTickNanos(clock.getTickNanos());
+	}
+	
+	// runs a single tick: gathers input, then updates the game
+	public void step()
+	{
+		if(input != null)
+			input.poll(gMan, ticks);
+		
+		gMan.update();
+		ticks++;
+	}
+	
+	// runs until the game is over or maxTicks more ticks have been run (0 for no limit),
+	// returning the number of ticks that were run
+	public long run(long maxTicks)
+	{
+		long start = ticks;
+		
+		if(!paced)
+		{
+			while(!gMan.isGameOver() && (maxTicks == 0 || ticks - start < maxTicks))
+			{
+				step();
+			}
+			
+			return ticks - start;
+		}
+		
+		clock.start();
+		
+		while(!gMan.isGameOver() && (maxTicks == 0 || ticks - start < maxTicks))
+		{
+			clock.advance();
+			
+			while(!gMan.isGameOver() && (maxTicks == 0 || ticks - start < maxTicks) 
+					&& clock.consumeTick())
+			{
+				step();
+			}
+			
+			clock.waitForNextFrame();
+		}
+		
+		return ticks - start;
+	}
+}
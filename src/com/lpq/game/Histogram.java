@@ -0,0 +1,172 @@
+/*Histogram.java
+* Liquid Pro Quo
+*
+* Counts recorded durations (or any other non negative longs) into buckets, so that
+* percentiles can be read back without keeping every value around. Values below 128 get a
+* bucket each; above that every power of two range is split into 64 equal buckets, which
+* keeps any value read back within about 1% of what was recorded, from nanoseconds up
+* to years. Recording is a couple of shifts and an increment, and never allocates.
+*
+* Recording and reading may happen on different threads (the game thread records, a
+* monitoring thread reads), so both are synchronized. The lock is uncontended nearly all
+* of the time, which is cheap.
+*/
+
+package com.lpq.game;
+
+import java.util.Arrays;
+
+public class Histogram
+{
+	// --------------- Constants ----------------
+	private static final int LINEAR = 128; // values below this get a bucket each
+	private static final int SUB_BITS = 6;
+	private static final int SUB = 1 << SUB_BITS; // buckets per power of two above that
+	private static final int BUCKETS = LINEAR + (63 - SUB_BITS) * SUB;
+	//-------------------------------------------
+	
+	private long[] counts;
+	private long count, sum;
+	private long min, max;
+	
+	public Histogram()
+	{
+		counts = new long[BUCKETS];
+		reset();
+	}
+	
+	public synchronized void record(long value)
+	{
+		if(value < 0)
+			value = 0;
+		
+		counts[bucket(value)]++;
+		count++;
+		sum += value;
+		
+		if(value < min)
+			min = value;
+		if(value > max)
+			max = value;
+	}
+	
+	public synchronized void reset()
+	{
+		Arrays.fill(counts, 0);
+		count = 0;
+		sum = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+	}
+	
+	public synchronized long getCount()		{return count;}
+	public synchronized long getMax()		{return max;}
+	public synchronized long getMin()		{return (count == 0) ? 0 : min;}
+	public synchronized double getMean()	{return (count == 0) ? 0 : (double)sum / count;}
+	
+	// value that p percent (0 to 100) of recorded values are at or below
+	public synchronized long getPercentile(double p)
+	{
+		if(count == 0)
+			return 0;
+		
+		long rank = (long)Math.ceil(p / 100 * count);
+		rank = Math.max(1, Math.min(rank, count));
+		if(rank == count)
+			return max;
+		
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			seen += counts[i];
+			if(seen >= rank) // the middle of the bucket, kept within what was actually recorded
+				return Math.max(min, Math.min(max, middle(i)));
+		}
+		
+		return max;
+	}
+	
+	// copies everything from the other histogram into this one, e.g. to read a snapshot
+	// at leisure without holding up whoever is recording. Only one lock is held at a time,
+	// so two threads copying a pair of histograms into each other can't deadlock
+	public void copyFrom(Histogram other)
+	{
+		if(other == this)
+			return;
+		
+		Histogram snap = snapshot(other);
+		
+		synchronized(this)
+		{
+			System.arraycopy(snap.counts, 0, counts, 0, BUCKETS);
+			count = snap.count;
+			sum = snap.sum;
+			min = snap.min;
+			max = snap.max;
+		}
+	}
+	
+	// adds everything recorded by the other histogram into this one, e.g. to combine the
+	// counts of several threads that each recorded into their own. The other's counts are
+	// copied out under its lock first and only then added in under ours, so two threads
+	// adding a pair of histograms into each other can't deadlock
+	public void add(Histogram other)
+	{
+		if(other == this)
+			throw new IllegalArgumentException("can't add a histogram to itself");
+		
+		Histogram snap = snapshot(other);
+		
+		synchronized(this)
+		{
+			for(int i = 0; i < BUCKETS; i++)
+				counts[i] += snap.counts[i];
+			
+			count += snap.count;
+			sum += snap.sum;
+			min = Math.min(min, snap.min);
+			max = Math.max(max, snap.max);
+		}
+	}
+	
+	//---------------- HELPERS ----------------
+	
+	// a private copy of the histogram, taken holding only its lock
+	private static Histogram snapshot(Histogram h)
+	{
+		Histogram snap = new Histogram();
+		
+		synchronized(h)
+		{
+			System.arraycopy(h.counts, 0, snap.counts, 0, BUCKETS);
+			snap.count = h.count;
+			snap.sum = h.sum;
+			snap.min = h.min;
+			snap.max = h.max;
+		}
+		
+		return snap;
+	}
+	
+	private static int bucket(long v)
+	{
+		if(v < LINEAR)
+			return (int)v;
+		
+		int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS; // at least 1
+		int sub = (int)(v >>> shift) - SUB; // 0 to SUB-1
+		
+		return LINEAR + (shift - 1) * SUB + sub;
+	}
+	
+	private static long middle(int i)
+	{
+		if(i < LINEAR)
+			return i;
+		
+		int shift = (i - LINEAR) / SUB + 1;
+		long sub = (i - LINEAR) % SUB + SUB;
+		
+		return (sub << shift) + (1L << (shift - 1));
+	}
+}
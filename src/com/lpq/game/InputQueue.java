@@ -0,0 +1,158 @@
+/*InputQueue.java
+* Liquid Pro Quo
+*
+* Hands input events from the thread they happen on (normally the AWT event thread, via
+* a key listener) over to the game thread. Events are plain int codes, whose meaning is up
+* to the game, stamped with the time they were offered. The queue is a fixed ring buffer
+* shared by exactly one producer and one consumer thread, which lets it get away without
+* any locks: each side only ever moves its own index forward, and only publishes it once
+* the slots it covers are ready.
+*
+* The game manager drains every waiting event at the start of each tick. The queue then
+* holds on to the stamps of drained events until the canvas reports the next frame has
+* been shown, which gives the input to present latency of each event.
+*/
+
+package com.lpq.game;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class InputQueue
+{
+	// --------------- Constants ----------------
+	public static final int DEFAULT_CAPACITY = 256;
+	//-------------------------------------------
+	
+	// takes each event as it's drained
+	public interface Handler
+	{
+		public void input(int code, long stamp);
+	}
+	
+	private int[] codes;
+	private long[] stamps; // System.nanoTime() of each offer
+	private int mask; // capacity - 1
+	
+	private final AtomicLong head; // next event to drain, only moved by the consumer
+	private final AtomicLong tail; // next free slot, only moved by the producer
+	private long headCache; // producer's last look at head
+	private volatile int dropped; // events offered while the queue was full
+	
+	// consumer only: drained events waiting on a frame to be shown
+	private long[] pending;
+	private int pendingCount;
+	private Histogram latency; // input to present latency of every event measured so far
+	private long latencyLast;
+	
+	//------------- ACCESSORS -------------
+	public int getCapacity()			{return codes.length;}
+	public int getDropped()				{return dropped;}
+	public int size()					{return (int)(tail.get() - head.get());}
+	
+	// input to present latency, in nanoseconds
+	public Histogram getLatency()		{return latency;}
+	public long getLatencyLast()		{return latencyLast;}
+	//------------------------------------------
+	
+	public InputQueue()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+	
+	// capacity is rounded up to a power of two
+	public InputQueue(int capacity)
+	{
+		int c = Integer.highestOneBit(Math.max(capacity, 2));
+		if(c < capacity)
+			c <<= 1;
+		
+		codes = new int[c];
+		stamps = new long[c];
+		mask = c - 1;
+		pending = new long[c];
+		latency = new Histogram();
+		
+		head = new AtomicLong();
+		tail = new AtomicLong();
+	}
+	
+	//---------------- PRODUCER ----------------
+	
+	// queues an event stamped with the current time, returning false (and dropping it)
+	// if the queue is full
+	public boolean offer(int code)
+	{
+		return offer(code, System.nanoTime());
+	}
+	
+	public boolean offer(int code, long stamp)
+	{
+		long t = tail.get();
+		
+		if(t - headCache >= codes.length) // looks full, see how far the consumer has got
+		{
+			headCache = head.get();
+			if(t - headCache >= codes.length)
+			{
+				dropped++;
+				return false;
+			}
+		}
+		
+		int i = (int)t & mask;
+		codes[i] = code;
+		stamps[i] = stamp;
+		tail.lazySet(t + 1); // publishes the slot written above
+		
+		return true;
+	}
+	
+	//---------------- CONSUMER ----------------
+	
+	// hands every waiting event to the handler in the order they were offered, returning
+	// how many there were
+	public int drain(Handler handler)
+	{
+		long h = head.get();
+		long t = tail.get();
+		
+		for(long n = h; n < t; n++)
+		{
+			int i = (int)n & mask;
+			
+			if(pendingCount < pending.length) // no frame shown in a long while, stop measuring
+				pending[pendingCount++] = stamps[i];
+			
+			handler.input(codes[i], stamps[i]);
+		}
+		
+		head.lazySet(t); // frees the slots for the producer
+		return (int)(t - h);
+	}
+	
+	// drops every waiting event
+	public void clear()
+	{
+		head.lazySet(tail.get());
+		pendingCount = 0;
+	}
+	
+	// to be called once a frame has been shown, now being when it was. Every event drained
+	// since the last one is counted as having taken effect on screen
+	public void presented(long now)
+	{
+		for(int i = 0; i < pendingCount; i++)
+		{
+			latencyLast = now - pending[i];
+			latency.record(latencyLast);
+		}
+		
+		pendingCount = 0;
+	}
+	
+	public void resetLatency()
+	{
+		latency.reset();
+		latencyLast = 0;
+	}
+}
@@ -0,0 +1,16 @@
+/*InputSource.java
+* Liquid Pro Quo
+*
+* Supplies input to a game manager when there's no canvas (and so no key listener) around
+* to do it, e.g. a script, a bot or a recording. The headless driver polls its source once
+* before every tick, and the source reacts by calling into the game manager the same way
+* a key adapter would.
+*/
+
+package com.lpq.game;
+
+public interface InputSource 
+{
+	// called once before each tick, tick being the number of ticks already run
+	public void poll(GameManager gMan, long tick);
+}
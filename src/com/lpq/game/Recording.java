@@ -0,0 +1,186 @@
+/*Recording.java
+* Liquid Pro Quo
+*
+* Everything needed to play a game over again exactly: the seed its GameRandom started
+* from, its tick rate, and every input event along with the tick it was handled in. Set
+* one on a game manager (GameManager.setRecording) and it fills in as the game is played;
+* feed it back through a ReplaySource and the game plays out the same way again. Once the
+* game is over (or whenever it's stopped) finish records the final tick, score and state
+* hash so a replay can check it ended up in the same place.
+*
+* Files are small: a header, then each event as the number of ticks since the one before
+* (as a variable length number, so usually a byte) followed by its code.
+*/
+
+package com.lpq.game;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class Recording
+{
+	// --------------- Constants ----------------
+	public static final int MAGIC = 0x4C505152; // "LPQR"
+	public static final int VERSION = 1;
+	//-------------------------------------------
+	
+	private long seed;
+	private int tickRate;
+	
+	private long[] ticks; // tick each event was handled in
+	private int[] codes;
+	private int count;
+	
+	private boolean finished; // whether the end state below was filled in
+	private long endTick;
+	private int endScore;
+	private long endHash;
+	
+	//------------- ACCESSORS -------------
+	public long getSeed()					{return seed;}
+	public int getTickRate()				{return tickRate;}
+	public synchronized int size()			{return count;}
+	public synchronized long getTick(int i)	{return ticks[i];}
+	public synchronized int getCode(int i)	{return codes[i];}
+	
+	public synchronized boolean isFinished()	{return finished;}
+	public synchronized long getEndTick()	{return endTick;}
+	public synchronized int getEndScore()	{return endScore;}
+	public synchronized long getEndHash()	{return endHash;}
+	//------------------------------------------
+	
+	public Recording(long seed, int tickRate)
+	{
+		this.seed = seed;
+		this.tickRate = tickRate;
+		
+		ticks = new long[256];
+		codes = new int[256];
+		count = 0;
+		finished = false;
+	}
+	
+	// notes an event handled during the given tick
+	public synchronized void input(long tick, int code)
+	{
+		if(count == codes.length)
+		{
+			ticks = Arrays.copyOf(ticks, count * 2);
+			codes = Arrays.copyOf(codes, count * 2);
+		}
+		
+		ticks[count] = tick;
+		codes[count] = code;
+		count++;
+		endTick = tick;
+	}
+	
+	// notes where the game has got to, for a replay to check against. Should be called
+	// between ticks, from the thread running them
+	public synchronized void finish(GameManager gMan)
+	{
+		endTick = gMan.getTick();
+		endScore = gMan.getScore();
+		endHash = gMan.stateHash();
+		finished = true;
+	}
+	
+	//---------------- FILES ----------------
+	
+	public synchronized void write(String path) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+		
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeLong(seed);
+			out.writeInt(tickRate);
+			
+			writeVar(out, count);
+			long last = 0;
+			for(int i = 0; i < count; i++)
+			{
+				writeVar(out, ticks[i] - last);
+				writeVar(out, codes[i]);
+				last = ticks[i];
+			}
+			
+			out.writeBoolean(finished);
+			writeVar(out, endTick);
+			out.writeInt(endScore);
+			out.writeLong(endHash);
+		} finally
+		{
+			out.close();
+		}
+	}
+	
+	public static Recording read(String path) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+		
+		try
+		{
+			if(in.readInt() != MAGIC)
+				throw new IOException(path + " isn't a recording");
+			
+			int version = in.readUnsignedByte();
+			if(version != VERSION)
+				throw new IOException(path + " is a version " + version + " recording, expected " + VERSION);
+			
+			Recording r = new Recording(in.readLong(), in.readInt());
+			
+			int n = (int)readVar(in);
+			long tick = 0;
+			for(int i = 0; i < n; i++)
+			{
+				tick += readVar(in);
+				r.input(tick, (int)readVar(in));
+			}
+			
+			r.finished = in.readBoolean();
+			r.endTick = readVar(in);
+			r.endScore = in.readInt();
+			r.endHash = in.readLong();
+			
+			return r;
+		} finally
+		{
+			in.close();
+		}
+	}
+	
+	// 7 bits at a time, low first, top bit set on every byte but the last
+	private static void writeVar(DataOutputStream out, long v) throws IOException
+	{
+		while((v & ~0x7FL) != 0)
+		{
+			out.writeByte((int)(v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte((int)v);
+	}
+	
+	private static long readVar(DataInputStream in) throws IOException
+	{
+		long v = 0;
+		for(int shift = 0; shift < 64; shift += 7)
+		{
+			int b = in.readUnsignedByte();
+			v |= (long)(b & 0x7F) << shift;
+			
+			if((b & 0x80) == 0)
+				return v;
+		}
+		
+		throw new IOException("bad number in recording");
+	}
+}
@@ -0,0 +1,38 @@
+/*ReplaySource.java
+* Liquid Pro Quo
+*
+* Plays a Recording's input back into a game manager, queueing each event just before
+* the tick it was originally handled in. The game manager must start out the same way it
+* did when recorded: fresh, with a GameRandom seeded from the recording and running at
+* the recording's tick rate.
+*/
+
+package com.lpq.game;
+
+public class ReplaySource implements InputSource
+{
+	private Recording recording;
+	private int next; // next event to be played
+	
+	//------------- ACCESSORS -------------
+	public Recording getRecording()			{return recording;}
+	public boolean isDone()					{return next >= recording.size();}
+	//------------------------------------------
+	
+	public ReplaySource(Recording r)
+	{
+		recording = r;
+		next = 0;
+	}
+	
+	public void poll(GameManager gMan, long tick)
+	{
+		long coming = gMan.getTick() + 1; // tick the manager is about to run
+		
+		while(next < recording.size() && recording.getTick(next) <= coming)
+		{
+			gMan.getInput().offer(recording.getCode(next));
+			next++;
+		}
+	}
+}
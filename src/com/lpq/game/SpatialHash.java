@@ -0,0 +1,461 @@
+/*SpatialHash.java
+* Liquid Pro Quo
+*
+* Broadphase for collisions between game objects. The world is cut into square cells of a
+* fixed size, and each object is filed under every cell its bounds (position plus
+* width/height) touch. Cells are hashed into a table of buckets (which grows along with
+* the number of entries), so the world doesn't need known limits and objects may wander
+* off into negative space. Finding what's near an object then only means looking in a few
+* cells rather than checking against everything.
+*
+* Objects are kept up to date with update (or sync, for a whole list at once), which only
+* refiles an object when it has moved into a different set of cells. Queries and pair
+* searches never allocate: results go into lists or handlers the caller keeps around, and
+* objects touching several cells are only reported once thanks to per object stamps.
+*
+* An object can only be filed in one SpatialHash at a time.
+*/
+
+package com.lpq.game;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class SpatialHash
+{
+	// --------------- Constants ----------------
+	public static final int DEFAULT_BUCKETS = 256; // to start with
+	private static final int NONE = -1;
+	//-------------------------------------------
+	
+	// told about each pair of objects whose bounds overlap, see findPairs
+	public interface PairHandler
+	{
+		public void pair(GameObj a, GameObj b);
+	}
+	
+	private int cellSize;
+	private int[] heads; // first entry in each bucket
+	private int mask; // buckets - 1
+	
+	// entries, one for each cell an object is filed under, chained per bucket
+	private int[] entrySlot; // slot of the object
+	private int[] entryCx, entryCy; // cell the entry is for, as buckets are shared
+	private int[] entryNext;
+	private int freeEntry; // chain of unused entries
+	private int entries; // entries in use
+	
+	// per slot data
+	private GameObj[] objects;
+	private int[] bx, by, bw, bh; // bounds when last filed, in pixels
+	private int[] cx1, cy1, cx2, cy2; // range of cells covered, inclusive
+	private int[] seen; // last query or sync the object took part in
+	private int count;
+	private int mark; // bumped for every query and sync
+	
+	//------------- ACCESSORS -------------
+	public int size()					{return count;}
+	public int getCellSize()			{return cellSize;}
+	public GameObj get(int i)			{return objects[i];}
+	//------------------------------------------
+	
+	public SpatialHash(int cellSize)
+	{
+		this(cellSize, DEFAULT_BUCKETS);
+	}
+	
+	// buckets is rounded up to a power of two
+	public SpatialHash(int cellSize, int buckets)
+	{
+		this.cellSize = Math.max(cellSize, 1);
+		
+		int b = Integer.highestOneBit(Math.max(buckets, 1));
+		if(b < buckets)
+			b <<= 1;
+		
+		heads = new int[b];
+		Arrays.fill(heads, NONE);
+		mask = b - 1;
+		
+		int capacity = 64;
+		entrySlot = new int[capacity];
+		entryCx = new int[capacity];
+		entryCy = new int[capacity];
+		entryNext = new int[capacity];
+		chainFree(0, capacity);
+		
+		objects = new GameObj[capacity];
+		bx = new int[capacity];
+		by = new int[capacity];
+		bw = new int[capacity];
+		bh = new int[capacity];
+		cx1 = new int[capacity];
+		cy1 = new int[capacity];
+		cx2 = new int[capacity];
+		cy2 = new int[capacity];
+		seen = new int[capacity];
+		count = 0;
+		mark = 0;
+	}
+	
+	// true if the object is filed here
+	public boolean contains(GameObj o)
+	{
+		return o.hash == this;
+	}
+	
+	// files the object, or refiles it if it has moved to different cells since last time
+	public void update(GameObj o)
+	{
+		if(o.hash != this)
+		{
+			insert(o);
+			return;
+		}
+		
+		int s = o.hashSlot;
+		int w = Math.max(o.getWidth(), 1), h = Math.max(o.getHeight(), 1);
+		int x = o.getX(), y = o.getY();
+		
+		bx[s] = x;
+		by[s] = y;
+		bw[s] = w;
+		bh[s] = h;
+		
+		int nx1 = cell(x), ny1 = cell(y), nx2 = cell(x + w - 1), ny2 = cell(y + h - 1);
+		if(nx1 == cx1[s] && ny1 == cy1[s] && nx2 == cx2[s] && ny2 == cy2[s])
+			return; // same cells as before, nothing to do
+		
+		unlink(s);
+		cx1[s] = nx1;
+		cy1[s] = ny1;
+		cx2[s] = nx2;
+		cy2[s] = ny2;
+		link(s);
+		fit();
+	}
+	
+	// brings the hash in line with the given list: everything in it is updated, and
+	// anything filed here that isn't in it any more is removed
+	public void sync(List<GameObj> list)
+	{
+		mark++;
+		for(int i = 0; i < list.size(); i++)
+		{
+			GameObj o = list.get(i);
+			update(o);
+			seen[o.hashSlot] = mark;
+		}
+		
+		// removing swaps the last object in, so walk backwards over ones already checked
+		for(int i = count - 1; i >= 0; i--)
+		{
+			if(seen[i] != mark)
+				remove(objects[i]);
+		}
+	}
+	
+	public void remove(GameObj o)
+	{
+		if(o.hash != this)
+			return;
+		
+		int s = o.hashSlot;
+		int last = --count;
+		unlink(s);
+		
+		if(s != last) // move the last object into the hole, pointing its entries at the new slot
+		{
+			retarget(last, s);
+			
+			objects[s] = objects[last];
+			bx[s] = bx[last];
+			by[s] = by[last];
+			bw[s] = bw[last];
+			bh[s] = bh[last];
+			cx1[s] = cx1[last];
+			cy1[s] = cy1[last];
+			cx2[s] = cx2[last];
+			cy2[s] = cy2[last];
+			seen[s] = seen[last];
+			objects[s].hashSlot = s;
+		}
+		
+		objects[last] = null;
+		o.hash = null;
+		o.hashSlot = NONE;
+	}
+	
+	public void clear()
+	{
+		for(int i = 0; i < count; i++)
+		{
+			objects[i].hash = null;
+			objects[i].hashSlot = NONE;
+			objects[i] = null;
+		}
+		count = 0;
+		
+		Arrays.fill(heads, NONE);
+		chainFree(0, entryNext.length);
+		entries = 0;
+	}
+	
+	// adds every object whose bounds overlap the given rectangle to out (which is cleared
+	// first), returning how many there were
+	public int query(int x, int y, int w, int h, List<GameObj> out)
+	{
+		out.clear();
+		mark++;
+		
+		int qx1 = cell(x), qy1 = cell(y), qx2 = cell(x + w - 1), qy2 = cell(y + h - 1);
+		
+		for(int i = qx1; i <= qx2; i++)
+		{
+			for(int j = qy1; j <= qy2; j++)
+			{
+				for(int e = heads[bucket(i, j)]; e != NONE; e = entryNext[e])
+				{
+					int s = entrySlot[e];
+					if(seen[s] == mark || entryCx[e] != i || entryCy[e] != j)
+						continue;
+					
+					seen[s] = mark;
+					if(overlaps(s, x, y, w, h))
+						out.add(objects[s]);
+				}
+			}
+		}
+		
+		return out.size();
+	}
+	
+	// query around an object's own bounds, leaving the object itself out
+	public int query(GameObj o, List<GameObj> out)
+	{
+		query(o.getX(), o.getY(), Math.max(o.getWidth(), 1), Math.max(o.getHeight(), 1), out);
+		out.remove(o);
+		return out.size();
+	}
+	
+	// hands every pair of objects whose bounds overlap to the handler, each pair once,
+	// returning the number of pairs
+	public int findPairs(PairHandler handler)
+	{
+		int pairs = 0;
+		
+		for(int b = 0; b < heads.length; b++)
+		{
+			for(int e = heads[b]; e != NONE; e = entryNext[e])
+			{
+				int s = entrySlot[e];
+				
+				for(int f = entryNext[e]; f != NONE; f = entryNext[f])
+				{
+					if(entryCx[f] != entryCx[e] || entryCy[f] != entryCy[e])
+						continue; // another cell that happens to share the bucket
+					
+					int t = entrySlot[f];
+					
+					// objects sharing several cells meet in each; only count them in the
+					// first one (the top left corner of where their cells overlap)
+					if(Math.max(cx1[s], cx1[t]) != entryCx[e] || Math.max(cy1[s], cy1[t]) != entryCy[e])
+						continue;
+					
+					if(overlaps(s, bx[t], by[t], bw[t], bh[t]))
+					{
+						pairs++;
+						if(handler != null)
+							handler.pair(objects[s], objects[t]);
+					}
+				}
+			}
+		}
+		
+		return pairs;
+	}
+	
+	//---------------- HELPERS ----------------
+	
+	private void insert(GameObj o)
+	{
+		if(o.hash != null) // filed elsewhere, take it out of there first
+			o.hash.remove(o);
+		
+		if(count == objects.length)
+			growSlots();
+		
+		int s = count++;
+		objects[s] = o;
+		o.hash = this;
+		o.hashSlot = s;
+		
+		int w = Math.max(o.getWidth(), 1), h = Math.max(o.getHeight(), 1);
+		bx[s] = o.getX();
+		by[s] = o.getY();
+		bw[s] = w;
+		bh[s] = h;
+		cx1[s] = cell(bx[s]);
+		cy1[s] = cell(by[s]);
+		cx2[s] = cell(bx[s] + w - 1);
+		cy2[s] = cell(by[s] + h - 1);
+		seen[s] = 0;
+		
+		link(s);
+		fit();
+	}
+	
+	// files slot s under every cell of its range
+	private void link(int s)
+	{
+		for(int i = cx1[s]; i <= cx2[s]; i++)
+		{
+			for(int j = cy1[s]; j <= cy2[s]; j++)
+			{
+				if(freeEntry == NONE)
+					growEntries();
+				
+				int e = freeEntry;
+				freeEntry = entryNext[e];
+				
+				int b = bucket(i, j);
+				entrySlot[e] = s;
+				entryCx[e] = i;
+				entryCy[e] = j;
+				entryNext[e] = heads[b];
+				heads[b] = e;
+				entries++;
+			}
+		}
+	}
+	
+	// keep buckets short, otherwise every lookup turns into a long walk. Only ever called
+	// once linking is done, never from inside a rehash (which relinks everything itself)
+	private void fit()
+	{
+		if(entries <= heads.length)
+			return;
+		
+		int buckets = heads.length * 2;
+		while(buckets < entries)
+			buckets <<= 1;
+		
+		rehash(buckets);
+	}
+	
+	// takes slot s out of every cell of its range
+	private void unlink(int s)
+	{
+		for(int i = cx1[s]; i <= cx2[s]; i++)
+		{
+			for(int j = cy1[s]; j <= cy2[s]; j++)
+			{
+				int b = bucket(i, j);
+				int prev = NONE;
+				
+				for(int e = heads[b]; e != NONE; prev = e, e = entryNext[e])
+				{
+					if(entrySlot[e] == s && entryCx[e] == i && entryCy[e] == j)
+					{
+						if(prev == NONE)
+							heads[b] = entryNext[e];
+						else
+							entryNext[prev] = entryNext[e];
+						
+						entryNext[e] = freeEntry;
+						freeEntry = e;
+						entries--;
+						break;
+					}
+				}
+			}
+		}
+	}
+	
+	// points the entries of slot from at slot to instead
+	private void retarget(int from, int to)
+	{
+		for(int i = cx1[from]; i <= cx2[from]; i++)
+		{
+			for(int j = cy1[from]; j <= cy2[from]; j++)
+			{
+				for(int e = heads[bucket(i, j)]; e != NONE; e = entryNext[e])
+				{
+					if(entrySlot[e] == from && entryCx[e] == i && entryCy[e] == j)
+					{
+						entrySlot[e] = to;
+						break;
+					}
+				}
+			}
+		}
+	}
+	
+	// true if slot s's bounds overlap the given rectangle
+	private boolean overlaps(int s, int x, int y, int w, int h)
+	{
+		return bx[s] < x + w && x < bx[s] + bw[s] && by[s] < y + h && y < by[s] + bh[s];
+	}
+	
+	// cell a pixel coordinate falls in, rounding down for negatives too
+	private int cell(int v)
+	{
+		return (v >= 0) ? v / cellSize : -((-v - 1) / cellSize) - 1;
+	}
+	
+	private int bucket(int i, int j)
+	{
+		return ((i * 73856093) ^ (j * 19349663)) & mask;
+	}
+	
+	// refiles everything into a new table of the given number of buckets
+	private void rehash(int buckets)
+	{
+		heads = new int[buckets];
+		Arrays.fill(heads, NONE);
+		mask = buckets - 1;
+		
+		chainFree(0, entryNext.length);
+		entries = 0;
+		
+		for(int i = 0; i < count; i++)
+			link(i);
+	}
+	
+	// links entries from..to-1 onto the free chain
+	private void chainFree(int from, int to)
+	{
+		for(int i = from; i < to - 1; i++)
+			entryNext[i] = i + 1;
+		
+		entryNext[to - 1] = NONE;
+		freeEntry = from;
+	}
+	
+	private void growEntries()
+	{
+		int old = entryNext.length;
+		
+		entrySlot = Arrays.copyOf(entrySlot, old * 2);
+		entryCx = Arrays.copyOf(entryCx, old * 2);
+		entryCy = Arrays.copyOf(entryCy, old * 2);
+		entryNext = Arrays.copyOf(entryNext, old * 2);
+		chainFree(old, old * 2);
+	}
+	
+	private void growSlots()
+	{
+		int size = objects.length * 2;
+		
+		objects = Arrays.copyOf(objects, size);
+		bx = Arrays.copyOf(bx, size);
+		by = Arrays.copyOf(by, size);
+		bw = Arrays.copyOf(bw, size);
+		bh = Arrays.copyOf(bh, size);
+		cx1 = Arrays.copyOf(cx1, size);
+		cy1 = Arrays.copyOf(cy1, size);
+		cx2 = Arrays.copyOf(cx2, size);
+		cy2 = Arrays.copyOf(cy2, size);
+		seen = Arrays.copyOf(seen, size);
+	}
+}
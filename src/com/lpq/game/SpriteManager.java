@@ -4,35 +4,131 @@
  * Liquid Pro Quo, 2011
  * 
  * Sprite Manager class acts as a library for the game's images, loading them up at 
- * game start, and passing them forward upon request. 
+ * game start, and passing them forward upon request. Images are converted as they're
+ * loaded into the screen's own pixel format, so drawing them is a straight copy rather
+ * than a per-pixel conversion. Optionally, each image also gets a copy in video memory
+ * (a VolatileImage), which is restored whenever its contents are lost.
+ * 
+ * Each image is given a small integer id as it's loaded, in the order they're listed, and
+ * its name keeps that id even across clearImages.
+ * Drawing code should look images up by id, which is a plain array index; looking them
+ * up by name is kept around for resolving a name to its id once, ahead of time.
  */
 
 package com.lpq.game;
 
 
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.Transparency;
 import java.awt.image.BufferedImage;
+import java.awt.image.DirectColorModel;
+import java.awt.image.VolatileImage;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 
 import javax.imageio.ImageIO;
 
 public class SpriteManager 
 {
-	private HashMap <String,BufferedImage> dictionary;
+	public static final int NO_SPRITE = -1; // id of a name that isn't loaded
+	
+	private HashMap <String,Integer> dictionary; // image name to id
+	private BufferedImage[] images; // images by id
+	private VolatileImage[] accelerated; // video memory copies by id, when asked for
+	private String[] names; // image names by id
+	private int count; // ids handed out
+	
+	private boolean compatible; // convert images to the screen's format as they load?
+	private boolean useVolatile; // keep video memory copies of each image?
+	private GraphicsConfiguration config; // screen the video memory copies are made for
+	
+	public int getCount()						{return count;}
+	public boolean isCompatible()				{return compatible;}
+	public boolean isUsingVolatile()			{return useVolatile;}
+	
+	// should be set before images are loaded
+	public void setCompatible(boolean i)		{compatible = i;}
+	
+	public void setUsingVolatile(boolean i)
+	{
+		useVolatile = i;
+		
+		if(!useVolatile)
+			flushVolatile();
+	}
 	
 	public SpriteManager()
 	{
-		dictionary = new HashMap<String,BufferedImage>();
+		dictionary = new HashMap<String,Integer>();
+		images = new BufferedImage[16];
+		accelerated = new VolatileImage[16];
+		names = new String[16];
+		count = 0;
+		compatible = true;
+		useVolatile = false;
 	}
 	
+	// drops every image but keeps the ids handed out for them, since objects hold on to
+	// theirs: a name loaded again gets its old id back, and until then its id has no image
 	public void clearImages()
 	{
-		dictionary.clear();
+		flushVolatile();
+		
+		for(int i = 0; i < count; i++)
+			images[i] = null;
+	}
+	
+	// releases every video memory copy
+	private void flushVolatile()
+	{
+		for(int i = 0; i < count; i++)
+		{
+			if(accelerated[i] != null)
+				accelerated[i].flush();
+			accelerated[i] = null;
+		}
+	}
+	
+	// adds an image under the given name, returning the id it's given. An image already
+	// loaded under that name is replaced and keeps its id
+	public int addImage(String name, BufferedImage img)
+	{
+		if(img == null)
+			throw new IllegalArgumentException("no image given for " + name);
+		
+		Integer id = dictionary.get(name);
+		
+		if(id == null)
+		{
+			if(count == images.length) // out of room?
+			{
+				images = Arrays.copyOf(images, count * 2);
+				accelerated = Arrays.copyOf(accelerated, count * 2);
+				names = Arrays.copyOf(names, count * 2);
+			}
+			
+			id = count++;
+			dictionary.put(name, id);
+			names[id] = name;
+		}
+		
+		images[id] = compatible ? toCompatible(img) : img;
+		
+		if(accelerated[id] != null) // the old copy is of the old image
+		{
+			accelerated[id].flush();
+			accelerated[id] = null;
+		}
+		
+		return id;
 	}
 	
 	//Given a path to the file containing the list of images, will load
@@ -50,7 +146,12 @@ public class SpriteManager
 			
 			while(line != null)
 			{
-				dictionary.put(line,ImageIO.read(new File("images/"+line+".png")));
+				File imageFile = new File("images/"+line+".png");
+				BufferedImage img = ImageIO.read(imageFile);
+				if(img == null) // there, but not in a format ImageIO can read
+					throw new IOException("can't decode " + imageFile.getPath());
+				
+				addImage(line, img);
 				line = br.readLine();
 			}
 			
@@ -61,16 +162,181 @@ public class SpriteManager
 			javax.swing.JOptionPane.showConfirmDialog((java.awt.Component)
 				       null, "Problem loading game images! Please make sure" +
 				       		" all images are present in the images folder and" +
-				       		" try again.", "Uh-Oh!",
+				       		" try again.\n(" + e.getMessage() + ")", "Uh-Oh!",
 				       		javax.swing.JOptionPane.DEFAULT_OPTION);
 			
 			System.exit(0);
 		}
 	}
 	
+	//returns the id of the image with the given name, or NO_SPRITE if there isn't one.
+	//Meant to be called once, with the id kept for drawing from then on
+	public int getId(String key)
+	{
+		Integer id = (key == null) ? null : dictionary.get(key);
+		return (id == null) ? NO_SPRITE : id;
+	}
+	
+	//name of the image with the given id
+	public String getName(int id)
+	{
+		return (id < 0 || id >= count) ? null : names[id];
+	}
+	
 	//when passed in a key (the name of the image), returns that image as a buffered image
 	public BufferedImage getImage(String key)
 	{
-		return dictionary.get(key);
+		return getImage(getId(key));
+	}
+	
+	//returns the image with the given id as a buffered image
+	public BufferedImage getImage(int id)
+	{
+		return (id < 0 || id >= count) ? null : images[id];
+	}
+	
+	public Image getRenderImage(String key)
+	{
+		return getRenderImage(getId(key));
+	}
+	
+	//returns the best image to draw for the given id: the video memory copy if we're
+	//keeping them and one can be had, otherwise the same image getImage would return
+	public Image getRenderImage(int id)
+	{
+		if(id < 0 || id >= count)
+			return null;
+		
+		if(!useVolatile)
+			return images[id];
+		
+		BufferedImage src = images[id];
+		if(src == null) // cleared and not loaded again
+			return null;
+		
+		if(config == null) // looked up once rather than every draw, until the screen changes
+			config = getConfiguration();
+		
+		GraphicsConfiguration gc = config;
+		if(gc == null) // no screen, so no video memory either
+			return src;
+		
+		VolatileImage v = accelerated[id];
+		
+		if(v == null)
+		{
+			v = gc.createCompatibleVolatileImage(src.getWidth(), src.getHeight(), transparencyOf(src));
+			accelerated[id] = v;
+			restore(v, src);
+			return v;
+		}
+		
+		switch(v.validate(gc))
+		{
+		case VolatileImage.IMAGE_INCOMPATIBLE: // screen changed under us, start over
+			v.flush();
+			gc = config = getConfiguration();
+			if(gc == null)
+			{
+				accelerated[id] = null;
+				return src;
+			}
+			
+			v = gc.createCompatibleVolatileImage(src.getWidth(), src.getHeight(), transparencyOf(src));
+			accelerated[id] = v;
+			restore(v, src);
+			break;
+		case VolatileImage.IMAGE_RESTORED: // contents were lost, paint them back in
+			restore(v, src);
+		}
+		
+		return v;
+	}
+	
+	//repaints a video memory copy from its source image
+	private void restore(VolatileImage v, BufferedImage src)
+	{
+		Graphics2D g = v.createGraphics();
+		g.setComposite(AlphaComposite.Src); // replace, don't blend over, what was there
+		g.drawImage(src, 0, 0, null);
+		g.dispose();
+	}
+	
+	//converts an image to one in the screen's native format, with the narrowest
+	//transparency that still holds all of its pixels
+	public BufferedImage toCompatible(BufferedImage src)
+	{
+		BufferedImage dst = createImage(src.getWidth(), src.getHeight(), transparencyOf(src));
+		
+		Graphics2D g = dst.createGraphics();
+		g.setComposite(AlphaComposite.Src);
+		g.drawImage(src, 0, 0, null);
+		g.dispose();
+		
+		return dst;
+	}
+	
+	//creates a blank image in the screen's native format with the given transparency
+	public static BufferedImage createImage(int w, int h, int transparency)
+	{
+		GraphicsConfiguration gc = getConfiguration();
+		
+		if(gc != null)
+			return gc.createCompatibleImage(w, h, transparency);
+		
+		// no screen to match, so use the formats the software loops handle fastest
+		return createHeadlessImage(w, h, transparency);
+	}
+	
+	//creates an image in the format a screen would most likely have given us: plain
+	//ints, with a 1 bit alpha for bitmask images (which gets the fast transparent copy
+	//loops rather than full blending) and premultiplied alpha for translucent ones
+	private static BufferedImage createHeadlessImage(int w, int h, int transparency)
+	{
+		if(transparency == Transparency.OPAQUE)
+			return new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+		
+		if(transparency == Transparency.TRANSLUCENT)
+			return new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+		
+		DirectColorModel cm = new DirectColorModel(25, 0x00ff0000, 0x0000ff00, 0x000000ff, 0x01000000);
+		return new BufferedImage(cm, cm.createCompatibleWritableRaster(w, h), false, null);
+	}
+	
+	//examines the image's pixels to see what kind of transparency it actually needs
+	//(rather than what its format allows): fully opaque, only fully clear or fully opaque
+	//pixels (bitmask), or partially see-through pixels (translucent)
+	public static int transparencyOf(BufferedImage img)
+	{
+		if(!img.getColorModel().hasAlpha())
+			return Transparency.OPAQUE;
+		
+		int result = Transparency.OPAQUE;
+		
+		for(int y = 0; y < img.getHeight(); y++)
+		{
+			for(int x = 0; x < img.getWidth(); x++)
+			{
+				int alpha = img.getRGB(x, y) >>> 24;
+				
+				if(alpha != 0 && alpha != 255)
+					return Transparency.TRANSLUCENT; // nothing's wider than this
+				
+				if(alpha == 0)
+					result = Transparency.BITMASK;
+			}
+		}
+		
+		return result;
+	}
+	
+	//configuration of the default screen, or null when there's no screen at all
+	private static GraphicsConfiguration getConfiguration()
+	{
+		if(GraphicsEnvironment.isHeadless())
+			return null;
+		
+		return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+				.getDefaultConfiguration();
 	}
 }
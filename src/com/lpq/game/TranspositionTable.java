@@ -0,0 +1,194 @@
+/*TranspositionTable.java
+* Liquid Pro Quo
+*
+* A fixed size cache of values worked out for positions (boards, game states and the
+* like) keyed by a 64 bit hash of the position, such as a Zobrist hash. Searches tend to
+* run into the same positions over and over by different routes, and this lets them look
+* up what they worked out last time rather than doing it all again.
+*
+* The table is meant to be shared by every thread of a search at once without any locks.
+* Each entry is three longs: the value, an info word (generation and weight), and a check
+* word holding the key xor'd with the other two. Writers just write all three, so two
+* threads writing the same entry at once may leave it a mix of both, but a mixed entry's
+* check won't match its key any more and reads simply treat it as missing. The worst a
+* race can do is lose an entry.
+*
+* Entries are kept in buckets of two. When a new position needs room in a full bucket, an
+* entry from an older generation (see newGeneration) gives way first, then whichever entry
+* has the lower weight, so heavy entries (e.g. ones that were costly to work out) stay put
+* while the other way keeps turning over with whatever's newest.
+*/
+
+package com.lpq.game;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+public class TranspositionTable
+{
+	// --------------- Constants ----------------
+	public static final int WAYS = 2; // entries per bucket
+	private static final int LONGS = 3; // per entry: check, value, info
+	private static final long USED = 1L << 63; // set in the info word of every entry in use
+	//-------------------------------------------
+
+	private AtomicLongArray entries;
+	private int shift; // 64 - log2(buckets), for picking a bucket from the top bits of a key
+	private int capacity;
+	private AtomicInteger generation;
+
+	// counted with adders so that threads counting at once don't fight over a single value
+	private LongAdder probes, hits, stores, replaced;
+
+	//------------- ACCESSORS -------------
+	public int getCapacity()				{return capacity;}
+	public int getGeneration()				{return generation.get();}
+	public long getProbes()					{return probes.sum();}
+	public long getHits()					{return hits.sum();}
+	public long getStores()					{return stores.sum();}
+	public long getReplaced()				{return replaced.sum();} // stores that pushed another position out
+	//------------------------------------------
+
+	// room for at least capacity entries (rounded up to a power of two)
+	public TranspositionTable(int capacity)
+	{
+		int buckets = Integer.highestOneBit(Math.max(capacity / WAYS - 1, 1)) << 1;
+
+		this.capacity = buckets * WAYS;
+		shift = 64 - Integer.numberOfTrailingZeros(buckets);
+		entries = new AtomicLongArray(this.capacity * LONGS);
+		generation = new AtomicInteger();
+
+		probes = new LongAdder();
+		hits = new LongAdder();
+		stores = new LongAdder();
+		replaced = new LongAdder();
+	}
+
+	// the value stored for the key, or miss if there isn't one
+	public long get(long key, long miss)
+	{
+		probes.increment();
+		int first = bucket(key);
+
+		for(int i = first; i < first + WAYS; i++)
+		{
+			int e = i * LONGS;
+			long info = entries.get(e + 2);
+			long value = entries.get(e + 1);
+
+			if(info != 0 && (entries.get(e) ^ value ^ info) == key)
+			{
+				hits.increment();
+				return value;
+			}
+		}
+
+		return miss;
+	}
+
+	// stores a value for the key. The weight (0 or more) decides how hard the entry holds on
+	// to its spot when others want it
+	public void put(long key, long value, int weight)
+	{
+		stores.increment();
+		int first = bucket(key);
+		int gen = generation.get() & Integer.MAX_VALUE;
+
+		int victim = -1;
+		long victimRank = Long.MAX_VALUE;
+		boolean taken = false; // whether the victim holds some other position
+
+		for(int i = first; i < first + WAYS; i++)
+		{
+			int e = i * LONGS;
+			long info = entries.get(e + 2);
+
+			if(info != 0 && (entries.get(e) ^ entries.get(e + 1) ^ info) == key) // already here
+			{
+				victim = i;
+				taken = false;
+				break;
+			}
+
+			// empty first, then older generations, then the lightest
+			long rank;
+			if(info == 0)
+				rank = -1;
+			else
+			if((int)((info >>> 32) & Integer.MAX_VALUE) != gen)
+				rank = info & 0xFFFFFFFFL;
+			else
+				rank = (1L << 32) + (info & 0xFFFFFFFFL);
+
+			if(rank < victimRank)
+			{
+				victim = i;
+				victimRank = rank;
+				taken = (info != 0);
+			}
+		}
+
+		if(taken)
+			replaced.increment();
+
+		long info = USED | ((long)gen << 32) | (Math.max(weight, 0) & 0xFFFFFFFFL);
+		int e = victim * LONGS;
+
+		entries.lazySet(e + 1, value);
+		entries.lazySet(e + 2, info);
+		entries.lazySet(e, key ^ value ^ info);
+	}
+
+	// marks everything stored so far as old, so it's the first to go when room is needed,
+	// e.g. at the start of each new search
+	public void newGeneration()
+	{
+		generation.incrementAndGet();
+	}
+
+	// fraction of gets that found something, from 0 to 1
+	public double getHitRate()
+	{
+		long p = probes.sum();
+		return (p == 0) ? 0 : (double)hits.sum() / p;
+	}
+
+	// number of entries in use, counted the slow way
+	public int size()
+	{
+		int count = 0;
+		for(int i = 0; i < capacity; i++)
+		{
+			if(entries.get(i * LONGS + 2) != 0)
+				count++;
+		}
+
+		return count;
+	}
+
+	public void resetStats()
+	{
+		probes.reset();
+		hits.reset();
+		stores.reset();
+		replaced.reset();
+	}
+
+	// forgets every entry (not safe while other threads are using the table)
+	public void clear()
+	{
+		for(int i = 0; i < entries.length(); i++)
+			entries.set(i, 0);
+
+		resetStats();
+	}
+
+	// first entry of the key's bucket, picked by the key's top bits after mixing them up a
+	// little in case the keys aren't spread well to begin with
+	private int bucket(long key)
+	{
+		return (int)((key * 0x9E3779B97F4A7C15L) >>> shift) * WAYS;
+	}
+}